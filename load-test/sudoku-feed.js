@@ -0,0 +1,57 @@
+// k6 load test comparing the thread-per-request model with virtual threads (spring.threads.virtual.enabled). The application does not offer a virtual thread mode until this comparison has been run and its results show it is worth it.
+// The query is a feed page whose sudokus resolve author and favouritedBy - two independent batches per page that run one after another on the request thread.
+//
+// Run the same script against both modes on the same data set and machine, e.g.
+//    $ ./mvnw spring-boot:run -Dspring-boot.run.profiles=dev                    (thread-per-request)
+//    $ ./mvnw spring-boot:run -Dspring-boot.run.profiles=dev -Dspring-boot.run.arguments=--spring.threads.virtual.enabled=true    (virtual threads)
+//    $ k6 run -e BASE_URL=http://localhost:8080 -e VUS=200 load-test/sudoku-feed.js
+// and compare http_reqs (throughput) and the p(99) of http_req_duration from the summaries. Raise VUS past server.tomcat.threads.max (200 by default) to see where the platform thread pool starts queueing requests.
+// The Mongo pool (application.mongo.pool.max-size) bounds both modes, keep it the same for both runs.
+
+import http from 'k6/http';
+import { check } from 'k6';
+
+const BASE_URL = __ENV.BASE_URL || 'http://localhost:8080';
+const VUS = parseInt(__ENV.VUS || '100');
+
+export const options = {
+    scenarios: {
+        feed: {
+            executor: 'ramping-vus',
+            startVUs: 0,
+            stages: [
+                { duration: '30s', target: VUS }, // warm-up, JIT and connection pools
+                { duration: '2m', target: VUS },
+                { duration: '10s', target: 0 },
+            ],
+            gracefulRampDown: '10s',
+        },
+    },
+    summaryTrendStats: ['avg', 'med', 'p(90)', 'p(95)', 'p(99)', 'max'],
+    thresholds: {
+        checks: ['rate>0.99'],
+    },
+};
+
+const query = `
+query Feed($sudokusLimit: Int!, $usersLimit: Int!) {
+    sudokuFeed(sudokusLimit: $sudokusLimit) {
+        sudokus {
+            id
+            content
+            favouriteCount
+            author { id name }
+            favouritedBy(usersLimit: $usersLimit) { users { id name } }
+        }
+    }
+}`;
+
+export default function () {
+    const response = http.post(`${BASE_URL}/graphql`, JSON.stringify({ query, variables: { sudokusLimit: 20, usersLimit: 5 } }), {
+        headers: { 'Content-Type': 'application/json' },
+    });
+    check(response, {
+        'status is 200': (r) => r.status === 200,
+        'no errors': (r) => r.json('errors') === undefined,
+    });
+}
@@ -1,15 +1,17 @@
 package org.hisudoku.hisudokuapi.general.configs;
 
-import graphql.analysis.MaxQueryComplexityInstrumentation;
 import graphql.analysis.MaxQueryDepthInstrumentation;
 //import graphql.analysis.FieldComplexityCalculator;
 //import graphql.analysis.FieldComplexityEnvironment;
 //import graphql.language.IntValue;
 //import graphql.schema.GraphQLDirective;
 
+import org.hisudoku.hisudokuapi.general.graphql.PersistedQueryDocumentProvider;
+
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.graphql.GraphQlSourceBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -60,11 +62,12 @@ public class CustomGraphQLConfiguration {
     //  }
     // The configuration property graphql.servlet.max-query-complexity works like a charm with servlets but does not have any effect with WebFlux. The instrumentation class MaxQueryComplexityInstrumentation implements the graph complexity functionality and is added by the GraphQLInstrumentationAutoConfiguration
 
+    // The flat complexity limit (one point per field) was replaced by QueryCostInstrumentation, which multiplies the cost of a selection by the page size arguments and has separate budgets for anonymous and authenticated callers (application.graphql.cost.*)
+
+    // parsed and validated documents are cached, clients may send only the hash of a query (automatic persisted queries), optionally only allow-listed operations are accepted
     @Bean
-    @ConditionalOnMissingBean
-    @ConditionalOnProperty(prefix = "spring.graphql.instrumentation", name = "max-query-complexity")
-    public MaxQueryComplexityInstrumentation maxQueryComplexityInstrumentation(@Value("${spring.graphql.instrumentation.max-query-complexity}") int maxComplexity) {
-        return new MaxQueryComplexityInstrumentation(maxComplexity);
+    public GraphQlSourceBuilderCustomizer persistedQueriesCustomizer(PersistedQueryDocumentProvider persistedQueryDocumentProvider) {
+        return builder -> builder.configureGraphQl(graphQlBuilder -> graphQlBuilder.preparsedDocumentProvider(persistedQueryDocumentProvider));
     }
 
 //    ----------------------------------------------------------------------------
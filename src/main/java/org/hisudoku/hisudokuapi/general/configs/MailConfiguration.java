@@ -0,0 +1,49 @@
+package org.hisudoku.hisudokuapi.general.configs;
+
+import org.hisudoku.hisudokuapi.users.services.PooledJavaMailSender;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.Properties;
+
+// Boot's MailSenderAutoConfiguration backs off as soon as there is a JavaMailSender bean, so the spring.mail.* properties are applied here the same way it applies them (SSL bundles are not supported, spring.mail.ssl.enabled is).
+// The mail health indicator and spring.mail.test-connection keep working, both only need a JavaMailSenderImpl.
+@Configuration
+@EnableConfigurationProperties(MailProperties.class)
+public class MailConfiguration {
+    @Bean
+    public PooledJavaMailSender javaMailSender(
+            MailProperties mailProperties,
+            @Value("${application.mail.pool.max-connections}") int maxConnections,
+            @Value("${application.mail.pool.idle-timeout}") Duration idleTimeout
+    ) {
+        PooledJavaMailSender mailSender = new PooledJavaMailSender(maxConnections, idleTimeout);
+        mailSender.setHost(mailProperties.getHost());
+        if (mailProperties.getPort() != null) {
+            mailSender.setPort(mailProperties.getPort());
+        }
+        mailSender.setUsername(mailProperties.getUsername());
+        mailSender.setPassword(mailProperties.getPassword());
+        mailSender.setProtocol(mailProperties.getProtocol());
+        if (mailProperties.getDefaultEncoding() != null) {
+            mailSender.setDefaultEncoding(mailProperties.getDefaultEncoding().name());
+        }
+
+        Properties javaMailProperties = new Properties();
+        javaMailProperties.putAll(mailProperties.getProperties());
+        String protocol = StringUtils.hasLength(mailProperties.getProtocol()) ? mailProperties.getProtocol() : "smtp";
+        if (mailProperties.getSsl().isEnabled()) {
+            javaMailProperties.setProperty("mail." + protocol + ".ssl.enable", "true");
+        }
+        if (!javaMailProperties.isEmpty()) {
+            mailSender.setJavaMailProperties(javaMailProperties);
+        }
+        return mailSender;
+    }
+}
@@ -1,11 +1,15 @@
 package org.hisudoku.hisudokuapi.general.configs;
 
+import java.time.Duration;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.convert.converter.Converter;
@@ -25,6 +29,20 @@ public class MongoConfiguration {
         return new MongoCustomConversions(Arrays.asList(new DateToZonedDateTime(), new ZonedDateTimeToDate()));
     }
 
+    // The connection pool is the bound on concurrent Mongo operations. At most max-size connections are opened per server, further queries wait up to max-wait-time for a free one (MongoTimeoutException after that), and max-connecting caps the connections being established at the same time.
+    // Applied after the customizer built from spring.data.mongodb.*, so these settings win.
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoConnectionPoolCustomizer(
+            @Value("${application.mongo.pool.max-size}") int maxSize,
+            @Value("${application.mongo.pool.max-connecting}") int maxConnecting,
+            @Value("${application.mongo.pool.max-wait-time}") Duration maxWaitTime
+    ) {
+        return builder -> builder.applyToConnectionPoolSettings(pool -> pool
+                .maxSize(maxSize)
+                .maxConnecting(maxConnecting)
+                .maxWaitTime(maxWaitTime.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
     @ReadingConverter
     public class DateToZonedDateTime implements Converter<Date, ZonedDateTime> {
         @Override
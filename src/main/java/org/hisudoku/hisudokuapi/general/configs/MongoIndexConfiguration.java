@@ -0,0 +1,190 @@
+package org.hisudoku.hisudokuapi.general.configs;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.hisudoku.hisudokuapi.sudokus.entities.Favourite;
+import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
+import org.hisudoku.hisudokuapi.users.entities.EmailActivationToken;
+import org.hisudoku.hisudokuapi.users.entities.HSUser;
+import org.hisudoku.hisudokuapi.users.entities.OutboxMail;
+import org.hisudoku.hisudokuapi.users.entities.StoredOneTimeToken;
+import org.hisudoku.hisudokuapi.users.enums.OutboxMailStatus;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import com.mongodb.client.FindIterable;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+// Automatic index creation from @Indexed/@CompoundIndex is disabled by default since Spring Data MongoDB 3.0 (spring.data.mongodb.auto-index-creation), and turning it on would also create every unique index declared on the entities, some of which existing data may not satisfy.
+// Indexes that queries depend on are therefore created explicitly here, once all singletons exist and before the context is refreshed - i.e. before the scheduled tasks start and before the application reports itself ready. ensureIndex is idempotent, an index that already exists with the same definition is left untouched, and an index that cannot be built stops the startup.
+// After that every query pattern of the repositories is explained. A winning plan with a COLLSCAN (an index missing from the list below) is logged, or with application.mongo.indexes.collscan=fail stops the application.
+@Slf4j
+@Configuration
+public class MongoIndexConfiguration implements SmartInitializingSingleton {
+    public enum CollectionScanPolicy {
+        OFF, WARN, FAIL
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final CollectionScanPolicy collectionScanPolicy;
+
+    public MongoIndexConfiguration(
+            MongoTemplate mongoTemplate,
+            @Value("${application.mongo.indexes.collscan:warn}") CollectionScanPolicy collectionScanPolicy
+    ) {
+        this.mongoTemplate = mongoTemplate;
+        this.collectionScanPolicy = collectionScanPolicy;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        ensureIndexes();
+    }
+
+    private void ensureIndexes() {
+        // sudokuFeed filtered by difficulty: { difficulty: { $in: [...] } } sorted by _id descending
+        ensureIndex(Sudoku.class,
+                new Index().on("difficulty", Sort.Direction.ASC).on("_id", Sort.Direction.DESC).named("difficulty_1__id_-1")
+        );
+        // sudokus of an author (findManyByAuthor, removeManyByAuthor): { author_id } sorted by _id descending
+        ensureIndex(Sudoku.class,
+                new Index().on("author_id", Sort.Direction.ASC).on("_id", Sort.Direction.DESC).named("author_id_1__id_-1")
+        );
+        // deduplication of published sudokus, sparse because sudokus saved before canonicalization was introduced have no hash
+        ensureIndex(Sudoku.class,
+                new Index().on("canonical_hash", Sort.Direction.ASC).unique().sparse().named("canonical_hash_1")
+        );
+        // sign in and sign up look users up by name (findOneByName, doesNameExist)
+        ensureIndex(HSUser.class,
+                new Index().on("name", Sort.Direction.ASC).unique().named("name_1")
+        );
+        // doesEmailExist/findOneByEmail; partial because users without an email have no such field and would collide with each other in a unique index
+        ensureIndex(HSUser.class,
+                new Index().on("email", Sort.Direction.ASC).unique().partial(PartialIndexFilter.of(Criteria.where("email").exists(true))).named("email_1")
+        );
+        // users of a role (findManyByRole) sorted by _id
+        ensureIndex(HSUser.class,
+                new Index().on("role", Sort.Direction.ASC).on("_id", Sort.Direction.ASC).named("role_1__id_1")
+        );
+        // favourites edges: uniqueness of a like plus the cursor-paginated reads in both directions, likers of a sudoku and sudokus liked by a user, both sorted by the other id descending
+        ensureIndex(Favourite.class,
+                new Index().on("sudoku_id", Sort.Direction.ASC).on("user_id", Sort.Direction.DESC).unique().named("sudoku_id_1_user_id_-1")
+        );
+        ensureIndex(Favourite.class,
+                new Index().on("user_id", Sort.Direction.ASC).on("sudoku_id", Sort.Direction.DESC).unique().named("user_id_1_sudoku_id_-1")
+        );
+        // mail outbox: the claim query of MailOutboxWorker ({ status: { $in: [...] }, next_attempt_at: { $lte: now } } sorted by next_attempt_at), sent mails are kept for a week and then removed by the TTL monitor (documents without sent_at are never expired)
+        ensureIndex(OutboxMail.class,
+                new Index().on("status", Sort.Direction.ASC).on("next_attempt_at", Sort.Direction.ASC).named("status_1_next_attempt_at_1")
+        );
+        ensureIndex(OutboxMail.class,
+                new Index().on("sent_at", Sort.Direction.ASC).expire(Duration.ofDays(7)).named("sent_at_1")
+        );
+        // email activation links are looked up by token
+        ensureIndex(EmailActivationToken.class,
+                new Index().on("token", Sort.Direction.ASC).unique().named("token_1")
+        );
+        // email activation and magic link tokens are removed by the TTL monitor as soon as they expire (expireAfterSeconds 0 - the field is the expiration itself); ExpiredTokensSweeper is only the fallback
+        ensureIndex(EmailActivationToken.class,
+                new Index().on("expiration", Sort.Direction.ASC).expire(Duration.ZERO).named("expiration_1")
+        );
+        ensureIndex(StoredOneTimeToken.class,
+                new Index().on("expires_at", Sort.Direction.ASC).expire(Duration.ZERO).named("expires_at_1")
+        );
+
+        log.info("Mongo indexes verified");
+        verifyQueryPlans();
+    }
+
+    // the filters and sorts the repositories run, with placeholder values - only their shape matters to the query planner
+    private List<QueryPattern> queryPatterns() {
+        ObjectId id = new ObjectId();
+        Date now = new Date();
+        return List.of(
+                new QueryPattern("sudoku feed by difficulty", Sudoku.class, new Document("difficulty", new Document("$in", List.of(1, 2))), new Document("_id", -1)),
+                new QueryPattern("sudokus by author", Sudoku.class, new Document("author_id", id.toHexString()), new Document("_id", -1)),
+                new QueryPattern("sudoku by canonical hash", Sudoku.class, new Document("canonical_hash", "hash"), null),
+                new QueryPattern("user by name", HSUser.class, new Document("name", "name"), null),
+                new QueryPattern("user by email", HSUser.class, new Document("email", "email"), null),
+                new QueryPattern("users by role", HSUser.class, new Document("role", "USER"), new Document("_id", 1)),
+                new QueryPattern("likers of a sudoku", Favourite.class, new Document("sudoku_id", id), new Document("user_id", -1)),
+                new QueryPattern("sudokus liked by a user", Favourite.class, new Document("user_id", id), new Document("sudoku_id", -1)),
+                new QueryPattern("due outbox mails", OutboxMail.class, new Document("status", new Document("$in", List.of(OutboxMailStatus.PENDING.name(), OutboxMailStatus.SENDING.name()))).append("next_attempt_at", new Document("$lte", now)), new Document("next_attempt_at", 1)),
+                new QueryPattern("email activation token", EmailActivationToken.class, new Document("token", "token").append("expiration", new Document("$gt", now)), null),
+                new QueryPattern("expired email activation tokens", EmailActivationToken.class, new Document("expiration", new Document("$lte", now)), null),
+                new QueryPattern("expired one-time tokens", StoredOneTimeToken.class, new Document("expires_at", new Document("$lte", now)), null)
+        );
+    }
+
+    // returns the descriptions of the query patterns whose winning plan scans a whole collection
+    public List<String> findCollectionScans() {
+        List<String> collectionScans = new ArrayList<>();
+        for (QueryPattern pattern : queryPatterns()) {
+            FindIterable<Document> find = mongoTemplate.getCollection(mongoTemplate.getCollectionName(pattern.entity())).find(pattern.filter()).limit(10);
+            if (pattern.sort() != null) {
+                find = find.sort(pattern.sort());
+            }
+            if (usesCollectionScan(find.explain())) {
+                collectionScans.add(pattern.description());
+            }
+        }
+        return collectionScans;
+    }
+
+    private void verifyQueryPlans() {
+        if (collectionScanPolicy == CollectionScanPolicy.OFF) {
+            return;
+        }
+        List<String> collectionScans = findCollectionScans();
+        if (collectionScans.isEmpty()) {
+            log.info("Every repository query pattern is served by an index");
+            return;
+        }
+        String message = "Queries without a usable index (COLLSCAN): " + String.join(", ", collectionScans);
+        if (collectionScanPolicy == CollectionScanPolicy.FAIL) {
+            throw new IllegalStateException(message);
+        }
+        log.warn(message);
+    }
+
+    // the unique indexes are what the favourites and the sudoku deduplication rely on for correctness, so an index that cannot be built (e.g. a unique one over duplicates in existing data) stops the startup instead of leaving the application running without it
+    private void ensureIndex(Class<?> entity, Index index) {
+        try {
+            mongoTemplate.indexOps(entity).ensureIndex(index);
+        } catch (DataAccessException e) {
+            throw new IllegalStateException("Cannot create index " + index.getIndexOptions().get("name") + " on " + mongoTemplate.getCollectionName(entity), e);
+        }
+    }
+
+    // The winning plan is a tree of stages (inputStage/inputStages), with the slot based engine it is nested one level deeper under queryPlan, a COLLSCAN anywhere in it counts
+    public static boolean usesCollectionScan(Document explain) {
+        return explain.get("queryPlanner") instanceof Document queryPlanner && containsStage(queryPlanner.get("winningPlan"), "COLLSCAN");
+    }
+
+    private static boolean containsStage(Object node, String stage) {
+        if (node instanceof Map<?, ?> map) {
+            return stage.equals(map.get("stage")) || map.values().stream().anyMatch(value -> containsStage(value, stage));
+        }
+        if (node instanceof List<?> list) {
+            return list.stream().anyMatch(value -> containsStage(value, stage));
+        }
+        return false;
+    }
+
+    private record QueryPattern(String description, Class<?> entity, Document filter, Document sort) {
+    }
+}
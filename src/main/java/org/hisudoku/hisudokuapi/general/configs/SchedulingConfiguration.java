@@ -3,18 +3,28 @@ package org.hisudoku.hisudokuapi.general.configs;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import org.hisudoku.hisudokuapi.users.repositories.EmailActivationTokenComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.sudokus.repositories.FavouriteComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.sudokus.services.FavouriteToggleBuffer;
+import org.hisudoku.hisudokuapi.users.services.ExpiredTokensSweeper;
+import org.hisudoku.hisudokuapi.users.services.MailOutboxWorker;
+import org.hisudoku.hisudokuapi.users.services.PooledJavaMailSender;
 
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @Configuration
 @EnableScheduling
 @RequiredArgsConstructor
 public class SchedulingConfiguration {
-    private final EmailActivationTokenComplexQueriesRepository emailActivationTokenComplexQueriesRepository;
+    private final ExpiredTokensSweeper expiredTokensSweeper;
+    private final FavouriteComplexQueriesRepository favouriteComplexQueriesRepository;
+    private final FavouriteToggleBuffer favouriteToggleBuffer;
+    private final MailOutboxWorker mailOutboxWorker;
+    private final PooledJavaMailSender pooledJavaMailSender;
 
     // Cron is a basic utility available on Unix-based systems. It enables users to schedule tasks to run periodically at a specified date/time.
     // A Spring Scheduled tasks is like this:
@@ -30,14 +40,52 @@ public class SchedulingConfiguration {
     //| |-------------- Hour (0 - 23)
     //| --------------- Minute (0 - 59)
     //----------------- Seconds (0 - 59)
-    @Scheduled(cron = "0 0 2 * * ?")  // Runs daily at 2 AM
-    public void cleanupOldTokens() {
-        long deletedRecords = emailActivationTokenComplexQueriesRepository.removeExpired();
+    //
+    // @Scheduled(cron = "0 0 2 * * ?")  // Runs daily at 2 AM
+    //
+    // Expired tokens are removed by TTL indexes (MongoIndexConfiguration), what is left for this is a fallback that deletes one bounded batch per collection and run, so it never competes with regular traffic the way a nightly deleteMany did.
+    @Scheduled(initialDelayString = "${application.mongo.expired-tokens-sweep.interval}", fixedDelayString = "${application.mongo.expired-tokens-sweep.interval}")
+    public void sweepExpiredTokens() {
+        long deletedRecords = expiredTokensSweeper.sweep();
+        if (deletedRecords > 0) {
+            log.info("Deleted {} expired tokens the TTL monitor has not removed yet", deletedRecords);
+        }
+    }
 
-        // Instant cutoffDate = Instant.now().minus(30, ChronoUnit.DAYS);
-        log.info("Deleted {} stale records", deletedRecords);
+    // Background part of the online migration of the embedded favourited_by arrays to the favourites collection: one small batch per run, so the sweep never competes with regular traffic for long. The unique edge indexes it relies on are created by MongoIndexConfiguration before any scheduled task starts. After the last batch the method returns immediately.
+    @Scheduled(initialDelay = 30, fixedDelay = 1, timeUnit = TimeUnit.SECONDS)
+    public void migrateEmbeddedFavourites() {
+        if (favouriteComplexQueriesRepository.isEmbeddedFavouritesMigrated()) {
+            return;
+        }
+        int migratedSudokus = favouriteComplexQueriesRepository.migrateNextEmbeddedFavouritesBatch(200);
+        if (migratedSudokus > 0) {
+            log.info("Migrated embedded favourites of {} sudokus", migratedSudokus);
+        } else {
+            log.info("All embedded favourites are migrated to the favourites collection");
+        }
     }
-}
 
+    // The favourite toggles buffered since the previous run are written with one bulk write of the edges and one of the counters, the interval is the window in which repeated toggles collapse.
+    @Scheduled(fixedDelayString = "${application.sudokus.favourite-buffer.flush-interval}")
+    public void flushFavouriteToggles() {
+        favouriteToggleBuffer.flush();
+    }
 
+    // Delivery of the mails queued by MailService. A full batch means there may be more due mails, so the backlog is drained right away instead of one batch per poll interval.
+    @Scheduled(fixedDelayString = "${application.mail.outbox.poll-interval}")
+    public void drainMailOutbox() {
+        int claimed;
+        do {
+            claimed = mailOutboxWorker.drain();
+        } while (claimed == mailOutboxWorker.getBatchSize());
+    }
 
+    @Scheduled(fixedDelay = 30, timeUnit = TimeUnit.SECONDS)
+    public void evictIdleSmtpConnections() {
+        int evicted = pooledJavaMailSender.evictIdle();
+        if (evicted > 0) {
+            log.debug("Closed {} idle SMTP connections", evicted);
+        }
+    }
+}
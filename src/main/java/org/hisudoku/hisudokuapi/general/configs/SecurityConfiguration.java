@@ -12,8 +12,6 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
-import org.springframework.security.authentication.ott.InMemoryOneTimeTokenService;
-import org.springframework.security.authentication.ott.OneTimeTokenService;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
@@ -57,10 +55,7 @@ public class SecurityConfiguration {
         return authConfig.getAuthenticationManager();
     }
 
-    @Bean
-    OneTimeTokenService oneTimeTokenService() {
-        return new InMemoryOneTimeTokenService();
-    }
+    // the OneTimeTokenService bean is MongoOneTimeTokenService, oneTimeTokenLogin picks it up from the context
 
 //    @Bean
 //    InMemoryUserDetailsManager userDetailsService(PasswordEncoder encoder) {
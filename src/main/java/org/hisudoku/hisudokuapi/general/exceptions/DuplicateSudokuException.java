@@ -0,0 +1,13 @@
+package org.hisudoku.hisudokuapi.general.exceptions;
+
+import lombok.Getter;
+
+public class DuplicateSudokuException extends RuntimeException {
+    @Getter
+    private final String existingSudokuId;
+
+    public DuplicateSudokuException(String existingSudokuId) {
+        super(existingSudokuId);
+        this.existingSudokuId = existingSudokuId;
+    }
+}
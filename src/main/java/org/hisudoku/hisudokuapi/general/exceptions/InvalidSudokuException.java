@@ -0,0 +1,13 @@
+package org.hisudoku.hisudokuapi.general.exceptions;
+
+import lombok.Getter;
+
+public class InvalidSudokuException extends RuntimeException {
+    @Getter
+    private final String content;
+
+    public InvalidSudokuException(String content) {
+        super(content);
+        this.content = content;
+    }
+}
@@ -6,6 +6,7 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import org.hisudoku.hisudokuapi.users.models.HSUserPrincipal;
+import org.hisudoku.hisudokuapi.users.models.VerifiedToken;
 import org.hisudoku.hisudokuapi.users.services.JWTService;
 
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -43,13 +44,15 @@ public class JWTAuthenticationFilter extends OncePerRequestFilter {
         }
 
         String token = getAccessToken(request); // jwt = authHeader.substring(7);
-        if (!jwtService.validateTokenBySignature(token) || jwtService.isTokenExpired(token)) {
+        // one parse checks the signature and the expiration and yields the claims, the principal is resolved from its result without touching the token again
+        Optional<VerifiedToken> verifiedToken = jwtService.verify(token);
+        if (verifiedToken.isEmpty()) {
             filterChain.doFilter(request, response);
             return;
         }
 
         if (SecurityContextHolder.getContext().getAuthentication() == null) {
-            setAuthenticationContext(token, request);
+            setAuthenticationContext(verifiedToken.get(), request);
         }
         filterChain.doFilter(request, response);
     }
@@ -68,9 +71,9 @@ public class JWTAuthenticationFilter extends OncePerRequestFilter {
         return token;
     }
 
-    private void setAuthenticationContext(String token, HttpServletRequest request) {
+    private void setAuthenticationContext(VerifiedToken verifiedToken, HttpServletRequest request) {
         // UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
-        HSUserPrincipal userDetails = jwtService.extractPrincipal(token);
+        HSUserPrincipal userDetails = jwtService.extractPrincipal(verifiedToken);
 
         // alternatively provide own implementation with: JwtPrincipalAuthenticationToken extends AbstractAuthenticationToken
         UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
@@ -0,0 +1,239 @@
+package org.hisudoku.hisudokuapi.general.graphql;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import graphql.ExecutionResult;
+import graphql.GraphQLContext;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.hisudoku.hisudokuapi.general.utils.HashUtils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.graphql.server.WebGraphQlInterceptor;
+import org.springframework.graphql.server.WebGraphQlRequest;
+import org.springframework.graphql.server.WebGraphQlResponse;
+import org.springframework.graphql.support.DefaultExecutionGraphQlResponse;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Most anonymous traffic is the first page of sudokuFeed and a few popular sudoku(sudokuId) queries, the same result for everyone. Responses of anonymous operations made of those two root fields only are cached here, keyed by the hash of the document, the operation name and the variables (serialized with sorted keys, so their order does not matter). Responses with errors are not cached, authenticated callers always go to the db.
+// While an operation executes the resolvers tag it with what it read (see tag): every feed with FEED_TAG, every sudoku with sudokuTag(id), every favouritedBy list with favouritesTag(id). SudokusService invalidates by tag - publishing a sudoku invalidates the feeds, changing or removing one also every response it is part of, a like only the responses that list who liked it. favouriteCount and the author names are not tracked, the time to live bounds how stale they get.
+// An operation that was running while one of its own tags was invalidated is not cached, its result may predate the change; invalidations of other tags (e.g. the favourites of other sudokus, flushed every few hundred ms) do not keep it out of the cache. Invalidations are local to this instance, with more than one node the time to live bounds staleness there too.
+@Slf4j
+@Component
+public class AnonymousResponseCache implements WebGraphQlInterceptor {
+    public static final String FEED_TAG = "feed";
+    private static final String TAGS = AnonymousResponseCache.class.getName() + ".tags";
+    private static final Set<String> CACHEABLE_ROOT_FIELDS = Set.of("sudokuFeed", "sudoku", "__typename");
+
+    private final boolean enabled;
+    private final Cache<String, CachedResponse> responses;
+    private final Cache<String, Boolean> cacheableDocuments; // document hash -> whether its operations can be cached
+    private final Map<String, Set<String>> keysByTag = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong(); // sequence number of the last invalidation
+    private final Cache<String, Long> tagInvalidations; // tag -> sequence number of its last invalidation, kept as long as a running operation could still need it (see isInvalidatedSince)
+    private volatile long allInvalidated = 0; // sequence number of the last invalidateAll
+    private final long timeToLiveNanos;
+    private final ObjectMapper variablesMapper;
+    private final Counter invalidatedResponses;
+    private final AuthenticationTrustResolver authenticationTrustResolver = new AuthenticationTrustResolverImpl();
+
+    public AnonymousResponseCache(
+            @Value("${application.graphql.response-cache.enabled}") boolean enabled,
+            @Value("${application.graphql.response-cache.maximum-size}") long maximumSize,
+            @Value("${application.graphql.response-cache.time-to-live}") Duration timeToLive,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .evictionListener((String key, CachedResponse response, RemovalCause cause) -> { // expired or pushed out, runs atomically with the removal - explicit invalidations drop their tags themselves
+                    if (key != null && response != null) {
+                        response.tags().forEach(tag -> keysByTag.computeIfPresent(tag, (t, keys) -> keys.remove(key) && keys.isEmpty() ? null : keys));
+                    }
+                })
+                .recordStats()
+                .build();
+        this.tagInvalidations = Caffeine.newBuilder()
+                .expireAfterWrite(timeToLive)
+                .build();
+        this.cacheableDocuments = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+        this.variablesMapper = objectMapper.copy().enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        CaffeineCacheMetrics.monitor(meterRegistry, responses, "graphql-anonymous-responses");
+        this.invalidatedResponses = Counter.builder("graphql.anonymous.responses.invalidated")
+                .description("Cached anonymous responses removed because data they contain changed")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<WebGraphQlResponse> intercept(WebGraphQlRequest request, Chain chain) {
+        if (!enabled || authenticationTrustResolver.isAuthenticated(SecurityContextHolder.getContext().getAuthentication())) {
+            return chain.next(request);
+        }
+        String documentHash = documentHash(request);
+        if (documentHash == null || !isCacheable(documentHash, request.getDocument(), request.getOperationName())) {
+            return chain.next(request);
+        }
+        String key = key(documentHash, request);
+        if (key == null) {
+            return chain.next(request);
+        }
+
+        CachedResponse cached = responses.getIfPresent(key);
+        if (cached != null) {
+            return Mono.just(new WebGraphQlResponse(new DefaultExecutionGraphQlResponse(request.toExecutionInput(), cached.result())));
+        }
+
+        long invalidationsAtStart = invalidations.get();
+        long startedAt = System.nanoTime();
+        Set<String> tags = ConcurrentHashMap.newKeySet();
+        request.configureExecutionInput((executionInput, builder) -> builder.graphQLContext(Map.of(TAGS, tags)).build());
+        return chain.next(request).doOnNext(response -> {
+            if (response.isValid() && response.getErrors().isEmpty() && !isInvalidatedSince(tags, invalidationsAtStart, startedAt)) {
+                put(key, new CachedResponse(ExecutionResult.newExecutionResult().data(response.getData()).extensions(response.getExtensions()).build(), Set.copyOf(tags)));
+                if (isInvalidatedSince(tags, invalidationsAtStart, startedAt)) { // invalidated between the check and the put
+                    responses.invalidate(key);
+                }
+            }
+        });
+    }
+
+    // called by the resolvers of the cacheable fields, does nothing for operations that are not being cached
+    public static void tag(GraphQLContext graphQLContext, String tag) {
+        Set<String> tags = graphQLContext.get(TAGS);
+        if (tags != null) {
+            tags.add(tag);
+        }
+    }
+
+    public static String sudokuTag(String sudokuId) {
+        return "sudoku:" + sudokuId;
+    }
+
+    public static String favouritesTag(String sudokuId) {
+        return "favourites:" + sudokuId;
+    }
+
+    public void invalidate(String... tags) {
+        long invalidation = invalidations.incrementAndGet();
+        for (String tag : tags) {
+            tagInvalidations.asMap().merge(tag, invalidation, Math::max); // before the removal, an operation that read the old data must not put it back
+            Set<String> keys = keysByTag.remove(tag);
+            if (keys != null) {
+                responses.invalidateAll(keys);
+                invalidatedResponses.increment(keys.size());
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        allInvalidated = invalidations.incrementAndGet();
+        invalidatedResponses.increment(responses.estimatedSize());
+        responses.invalidateAll();
+        keysByTag.clear();
+    }
+
+    // Whether data behind any of the tags of an operation changed after it started. The invalidations of a tag are remembered for the time to live of the responses, an operation running longer than that could have missed one and is treated as invalidated.
+    private boolean isInvalidatedSince(Set<String> tags, long invalidation, long startedAt) {
+        if (System.nanoTime() - startedAt >= timeToLiveNanos || allInvalidated > invalidation) {
+            return true;
+        }
+        for (String tag : tags) {
+            Long tagInvalidation = tagInvalidations.getIfPresent(tag);
+            if (tagInvalidation != null && tagInvalidation > invalidation) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the tags are indexed after the entry is in place, an eviction of a previous entry under the same key would otherwise remove them again
+    private void put(String key, CachedResponse response) {
+        responses.put(key, response);
+        response.tags().forEach(tag -> keysByTag.computeIfAbsent(tag, t -> ConcurrentHashMap.newKeySet()).add(key));
+    }
+
+    // automatic persisted queries may come without the text, the hash they carry is the hash of the text (see PersistedQueryDocumentProvider)
+    private static String documentHash(WebGraphQlRequest request) {
+        if (StringUtils.hasText(request.getDocument())) {
+            return HashUtils.sha256Hex(request.getDocument());
+        }
+        if (request.getExtensions().get("persistedQuery") instanceof Map<?, ?> persistedQuery && persistedQuery.get("sha256Hash") instanceof String hash) {
+            return hash.toLowerCase();
+        }
+        return null;
+    }
+
+    // A query whose root selections are all cacheable fields. Parsed once per document (and per operation name, a document may hold a mutation next to the query), a document only known by its hash is cacheable once its text was seen.
+    private boolean isCacheable(String documentHash, String document, String operationName) {
+        String documentKey = documentHash + "|" + Objects.toString(operationName, "");
+        if (!StringUtils.hasText(document)) {
+            return Boolean.TRUE.equals(cacheableDocuments.getIfPresent(documentKey));
+        }
+        return cacheableDocuments.get(documentKey, k -> isCacheableOperation(document, operationName));
+    }
+
+    private static boolean isCacheableOperation(String document, String operationName) {
+        Document parsed;
+        try {
+            parsed = Parser.parse(document);
+        } catch (InvalidSyntaxException e) {
+            return false;
+        }
+        List<OperationDefinition> operations = parsed.getDefinitions().stream()
+                .filter(definition -> definition instanceof OperationDefinition)
+                .map(definition -> (OperationDefinition) definition)
+                .filter(operation -> operationName == null || operationName.equals(operation.getName()))
+                .toList();
+        if (operations.size() != 1 || operations.getFirst().getOperation() != OperationDefinition.Operation.QUERY) {
+            return false;
+        }
+        List<Selection> selections = operations.getFirst().getSelectionSet().getSelections();
+        return selections.stream().allMatch(selection -> selection instanceof Field field && CACHEABLE_ROOT_FIELDS.contains(field.getName()));
+    }
+
+    private String key(String documentHash, WebGraphQlRequest request) {
+        try {
+            return documentHash + "|" + Objects.toString(request.getOperationName(), "") + "|" + variablesMapper.writeValueAsString(request.getVariables());
+        } catch (JsonProcessingException e) {
+            log.debug("Variables cannot be serialized, the response is not cached => {}", e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private record CachedResponse(ExecutionResult result, Set<String> tags) {
+    }
+}
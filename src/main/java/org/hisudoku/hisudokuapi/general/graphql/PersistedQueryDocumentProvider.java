@@ -0,0 +1,153 @@
+package org.hisudoku.hisudokuapi.general.graphql;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import graphql.ExecutionInput;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.hisudoku.hisudokuapi.general.utils.HashUtils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// graphql-java parses and validates the query text of every request against the schema before executing it, although the clients send the same few operations over and over. Documents that parsed and validated without errors are kept in a bounded cache under the SHA-256 of their text, each distinct operation is parsed and validated once (until it is evicted).
+// The same hash serves automatic persisted queries (the Apollo protocol): a client sends only { extensions: { persistedQuery: { version: 1, sha256Hash } } }. A document that is not cached is answered with a PersistedQueryNotFound error, the client then sends the query text together with the hash, which registers it.
+// With application.graphql.persisted-queries.allow-list.enabled only the operations of the manifest (an Apollo persisted query manifest generated from the client code, { operations: [{ id, name, body }] }) are executed - by hash or by full text - everything else, GraphiQL and introspection included, is rejected.
+@Slf4j
+@Component
+public class PersistedQueryDocumentProvider implements PreparsedDocumentProvider {
+    public static final String PERSISTED_QUERY_NOT_FOUND = "PersistedQueryNotFound";
+    public static final String PERSISTED_QUERY_NOT_ALLOWED = "PersistedQueryNotAllowed";
+    public static final String PERSISTED_QUERY_HASH_MISMATCH = "PersistedQueryHashMismatch";
+
+    private final boolean allowListEnabled;
+    private final Map<String, String> allowList; // hash -> query text, from the manifest
+    private final Cache<String, PreparsedDocumentEntry> documents; // hash -> parsed and validated document
+
+    public PersistedQueryDocumentProvider(
+            @Value("${application.graphql.persisted-queries.allow-list.enabled}") boolean allowListEnabled,
+            @Value("${application.graphql.persisted-queries.manifest}") Resource manifest,
+            @Value("${application.graphql.documents-cache.maximum-size}") long documentsCacheMaximumSize,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry
+    ) throws IOException {
+        this.allowListEnabled = allowListEnabled;
+        this.allowList = readManifest(manifest, allowListEnabled, objectMapper);
+        this.documents = Caffeine.newBuilder()
+                .maximumSize(documentsCacheMaximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, documents, "graphql-documents");
+    }
+
+    @Override
+    public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(ExecutionInput executionInput, Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        String query = executionInput.getQuery();
+        String hash = persistedQueryHash(executionInput);
+
+        if (hash == null) {
+            if (!StringUtils.hasText(query)) {
+                return CompletableFuture.completedFuture(parseAndValidateFunction.apply(executionInput)); // graphql-java reports the missing operation
+            }
+            hash = HashUtils.sha256Hex(query);
+        } else if (!StringUtils.hasText(query)) {
+            PreparsedDocumentEntry cached = documents.getIfPresent(hash);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+            query = allowList.get(hash); // the allow-listed operations can be sent by hash before anyone sent their text
+            if (query == null) {
+                return failed(PERSISTED_QUERY_NOT_FOUND, "PERSISTED_QUERY_NOT_FOUND", hash);
+            }
+        } else if (!hash.equals(HashUtils.sha256Hex(query))) {
+            return failed(PERSISTED_QUERY_HASH_MISMATCH, "PERSISTED_QUERY_HASH_MISMATCH", hash);
+        }
+
+        if (allowListEnabled && !allowList.containsKey(hash)) {
+            return failed(PERSISTED_QUERY_NOT_ALLOWED, "PERSISTED_QUERY_NOT_ALLOWED", hash);
+        }
+
+        PreparsedDocumentEntry entry = documents.getIfPresent(hash);
+        if (entry == null) {
+            String document = query;
+            entry = parseAndValidateFunction.apply(executionInput.transform(builder -> builder.query(document)));
+            if (!entry.hasErrors()) { // invalid documents are not kept, they would only push valid ones out of the cache
+                documents.put(hash, entry);
+            }
+        }
+        return CompletableFuture.completedFuture(entry);
+    }
+
+    public long getCachedDocuments() {
+        return documents.estimatedSize();
+    }
+
+    private static String persistedQueryHash(ExecutionInput executionInput) {
+        if (executionInput.getExtensions() != null && executionInput.getExtensions().get("persistedQuery") instanceof Map<?, ?> persistedQuery && persistedQuery.get("sha256Hash") instanceof String hash) {
+            return hash.toLowerCase();
+        }
+        return null;
+    }
+
+    private static CompletableFuture<PreparsedDocumentEntry> failed(String message, String code, String hash) {
+        GraphQLError error = GraphqlErrorBuilder.newError()
+                .message(message) // Apollo clients recognize the protocol errors by their message
+                .extensions(Map.of("code", code, "persistedQueryId", hash))
+                .build();
+        return CompletableFuture.completedFuture(new PreparsedDocumentEntry(error));
+    }
+
+    private static Map<String, String> readManifest(Resource manifest, boolean required, ObjectMapper objectMapper) throws IOException {
+        if (!manifest.exists()) {
+            if (required) {
+                throw new IllegalStateException("The persisted query allow-list is enabled but there is no manifest at " + manifest.getDescription());
+            }
+            return Map.of();
+        }
+        PersistedQueryManifest parsed;
+        try (InputStream inputStream = manifest.getInputStream()) {
+            parsed = objectMapper.readValue(inputStream, PersistedQueryManifest.class);
+        }
+        Map<String, String> operations = new HashMap<>();
+        for (PersistedQueryManifest.Operation operation : parsed.operations() != null ? parsed.operations() : List.<PersistedQueryManifest.Operation>of()) {
+            String hash = HashUtils.sha256Hex(operation.body());
+            if (!hash.equals(operation.id())) {
+                throw new IllegalStateException("The id of the persisted query " + operation.name() + " is not the SHA-256 hash of its body");
+            }
+            operations.put(hash, operation.body());
+        }
+        if (required && operations.isEmpty()) {
+            throw new IllegalStateException("The persisted query allow-list is enabled but the manifest at " + manifest.getDescription() + " has no operations, every request would be rejected");
+        }
+        log.info("{} persisted queries loaded from {}", operations.size(), manifest.getDescription());
+        return Map.copyOf(operations);
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record PersistedQueryManifest(List<Operation> operations) {
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        record Operation(String id, String name, String body) {
+        }
+    }
+}
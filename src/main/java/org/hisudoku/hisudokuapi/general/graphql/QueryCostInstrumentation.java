@@ -0,0 +1,152 @@
+package org.hisudoku.hisudokuapi.general.graphql;
+
+import graphql.ExecutionResult;
+import graphql.analysis.QueryTraverser;
+import graphql.analysis.QueryVisitorFieldEnvironment;
+import graphql.analysis.QueryVisitorStub;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.CoercedVariables;
+import graphql.execution.ExecutionContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.language.Document;
+import graphql.schema.GraphQLSchema;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.MessageSource;
+import org.springframework.graphql.server.WebGraphQlInterceptor;
+import org.springframework.graphql.server.WebGraphQlRequest;
+import org.springframework.graphql.server.WebGraphQlResponse;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Replaces the flat MaxQueryComplexityInstrumentation, which counts one point per field and lets sudokuFeed(sudokusLimit: 50) { sudokus { favouritedBy(usersLimit: 50) { users { id } } } } through although it loads thousands of documents. Here the cost of a field is its weight plus the cost of its selection multiplied by the page size argument it is given (sudokusLimit, usersLimit), the nested feeds multiply each other just like the documents they load.
+// The cost is computed from the document and the coerced variables before the execution starts, an operation over the budget of its caller is aborted before any data fetcher runs. Anonymous and authenticated callers have separate budgets - the interceptor part records on the request thread, where the security context is available, which one applies. Every executed operation reports { extensions: { cost: { requested, budget } } }.
+// Introspection fields cost nothing, GraphiQL loads the whole schema that way.
+@Slf4j
+@Component
+public class QueryCostInstrumentation extends SimplePerformantInstrumentation implements WebGraphQlInterceptor {
+    static final String AUTHENTICATED = QueryCostInstrumentation.class.getName() + ".authenticated";
+    private static final String COST = QueryCostInstrumentation.class.getName() + ".cost";
+
+    private final Map<String, Integer> fieldWeights; // "Type.field" -> weight
+    private final int defaultWeight;
+    private final List<String> multiplierArguments;
+    private final long anonymousBudget;
+    private final long authenticatedBudget;
+    private final MessageSource messages;
+    private final AuthenticationTrustResolver authenticationTrustResolver = new AuthenticationTrustResolverImpl();
+
+    public QueryCostInstrumentation(
+            @Value("#{${application.graphql.cost.field-weights}}") Map<String, Integer> fieldWeights,
+            @Value("${application.graphql.cost.default-weight}") int defaultWeight,
+            @Value("${application.graphql.cost.multiplier-arguments}") List<String> multiplierArguments,
+            @Value("${application.graphql.cost.anonymous-budget}") long anonymousBudget,
+            @Value("${application.graphql.cost.authenticated-budget}") long authenticatedBudget,
+            MessageSource messages
+    ) {
+        this.fieldWeights = Map.copyOf(fieldWeights);
+        this.defaultWeight = defaultWeight;
+        this.multiplierArguments = List.copyOf(multiplierArguments);
+        this.anonymousBudget = anonymousBudget;
+        this.authenticatedBudget = authenticatedBudget;
+        this.messages = messages;
+    }
+
+    @Override
+    public Mono<WebGraphQlResponse> intercept(WebGraphQlRequest request, Chain chain) {
+        boolean authenticated = authenticationTrustResolver.isAuthenticated(SecurityContextHolder.getContext().getAuthentication());
+        request.configureExecutionInput((executionInput, builder) -> builder.graphQLContext(Map.of(AUTHENTICATED, authenticated)).build());
+        return chain.next(request);
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(InstrumentationExecuteOperationParameters parameters, InstrumentationState state) {
+        ExecutionContext executionContext = parameters.getExecutionContext();
+        long requested = calculateCost(executionContext.getGraphQLSchema(), executionContext.getDocument(), executionContext.getOperationDefinition().getName(), executionContext.getCoercedVariables());
+        long budget = Boolean.TRUE.equals(executionContext.getGraphQLContext().get(AUTHENTICATED)) ? authenticatedBudget : anonymousBudget;
+        executionContext.getGraphQLContext().put(COST, new QueryCost(requested, budget));
+
+        if (requested > budget) {
+            log.debug("Operation {} rejected, cost {} exceeds the budget {}", executionContext.getOperationDefinition().getName(), requested, budget);
+            // passed as strings, MessageFormat would group the digits of numbers by the locale (1,500) and the message would not show the same values as extensions.cost
+            throw new AbortExecutionException(messages.getMessage("exceptions.query-cost-exceeded", new Object[]{Long.toString(requested), Long.toString(budget)}, executionContext.getLocale()));
+        }
+        return SimpleInstrumentationContext.noOp();
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult, InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        QueryCost cost = parameters.getGraphQLContext().get(COST);
+        if (cost == null) { // the document did not parse or validate, nothing was costed
+            return CompletableFuture.completedFuture(executionResult);
+        }
+        return CompletableFuture.completedFuture(executionResult.transform(builder -> builder.addExtension("cost", Map.of("requested", cost.requested(), "budget", cost.budget()))));
+    }
+
+    // Post-order: the selection of a field is visited before the field itself, so its cost is known when the field is. The costs are summed up per parent field, the root fields have no parent (null key).
+    public long calculateCost(GraphQLSchema schema, Document document, String operationName, CoercedVariables variables) {
+        Map<QueryVisitorFieldEnvironment, Long> selectionCosts = new HashMap<>();
+        QueryTraverser.newQueryTraverser()
+                .schema(schema)
+                .document(document)
+                .operationName(operationName)
+                .coercedVariables(variables)
+                .build()
+                .visitPostOrder(new QueryVisitorStub() {
+                    @Override
+                    public void visitField(QueryVisitorFieldEnvironment env) {
+                        long selectionCost = selectionCosts.getOrDefault(env, 0L);
+                        long cost = isIntrospection(env) ? selectionCost : saturatedAdd(weight(env), saturatedMultiply(multiplier(env), selectionCost));
+                        selectionCosts.merge(env.getParentEnvironment(), cost, QueryCostInstrumentation::saturatedAdd);
+                    }
+                });
+        return selectionCosts.getOrDefault(null, 0L);
+    }
+
+    private long weight(QueryVisitorFieldEnvironment env) {
+        return fieldWeights.getOrDefault(env.getFieldsContainer().getName() + "." + env.getFieldDefinition().getName(), defaultWeight);
+    }
+
+    // the page size the field was asked for, validation (@Max) runs only when the field is fetched, so an oversized limit makes the operation expensive here instead of being clamped
+    private long multiplier(QueryVisitorFieldEnvironment env) {
+        for (String argument : multiplierArguments) {
+            if (env.getArguments().get(argument) instanceof Number limit) {
+                return Math.max(1, limit.longValue());
+            }
+        }
+        return 1;
+    }
+
+    private static boolean isIntrospection(QueryVisitorFieldEnvironment env) {
+        return env.isTypeNameIntrospectionField() || env.getFieldDefinition().getName().startsWith("__") || env.getFieldsContainer().getName().startsWith("__");
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum; // both operands are never negative
+    }
+
+    private static long saturatedMultiply(long a, long b) {
+        long high = Math.multiplyHigh(a, b);
+        long product = a * b;
+        return high != 0 || product < 0 ? Long.MAX_VALUE : product;
+    }
+
+    private record QueryCost(long requested, long budget) {
+    }
+}
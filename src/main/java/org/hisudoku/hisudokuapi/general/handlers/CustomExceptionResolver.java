@@ -82,6 +82,20 @@ public class CustomExceptionResolver extends DataFetcherExceptionResolverAdapter
                     .build();
         }
 
+        if (t instanceof InvalidSudokuException invalidSudokuException) {
+            return GraphqlErrorBuilder.newError(env)
+                    .errorType(ErrorType.BAD_REQUEST)
+                    .message(messages.getMessage("exceptions.invalid-sudoku-exception", new Object[]{invalidSudokuException.getContent()}, env.getLocale()))
+                    .build();
+        }
+
+        if (t instanceof DuplicateSudokuException duplicateSudokuException) {
+            return GraphqlErrorBuilder.newError(env)
+                    .errorType(ErrorType.BAD_REQUEST)
+                    .message(messages.getMessage("exceptions.duplicate-sudoku-exception", new Object[]{duplicateSudokuException.getExistingSudokuId()}, env.getLocale()))
+                    .build();
+        }
+
         if (t instanceof OperationFailedException operationFailedException) {
             return GraphqlErrorBuilder.newError(env)
                     .errorType(ErrorType.INTERNAL_ERROR)
@@ -0,0 +1,20 @@
+package org.hisudoku.hisudokuapi.general.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public final class HashUtils {
+    private HashUtils() {
+    }
+
+    // hex encoded SHA-256 of the UTF-8 bytes of the text
+    public static String sha256Hex(String text) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // every JVM is required to support SHA-256
+        }
+    }
+}
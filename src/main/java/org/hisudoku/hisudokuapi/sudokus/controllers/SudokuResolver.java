@@ -2,13 +2,17 @@ package org.hisudoku.hisudokuapi.sudokus.controllers;
 
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 
+import org.hisudoku.hisudokuapi.general.graphql.AnonymousResponseCache;
 import org.hisudoku.hisudokuapi.sudokus.dtos.*;
+import org.hisudoku.hisudokuapi.sudokus.models.FavouritedByKey;
 import org.hisudoku.hisudokuapi.sudokus.models.SudokuFeedModel;
 import org.hisudoku.hisudokuapi.sudokus.models.SudokuModel;
+import org.hisudoku.hisudokuapi.sudokus.services.SudokuUtils;
 import org.hisudoku.hisudokuapi.sudokus.services.SudokusService;
 import org.hisudoku.hisudokuapi.users.models.HSUserPrincipal;
 import org.hisudoku.hisudokuapi.users.models.MessageResponseModel;
@@ -16,7 +20,9 @@ import org.hisudoku.hisudokuapi.users.models.UserFeedModel;
 import org.hisudoku.hisudokuapi.users.models.UserModel;
 
 import org.springframework.graphql.data.method.annotation.Argument;
+import org.springframework.graphql.data.method.annotation.BatchMapping;
 import org.springframework.graphql.data.method.annotation.SchemaMapping;
+import org.springframework.graphql.execution.BatchLoaderRegistry;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
@@ -24,14 +30,27 @@ import org.springframework.validation.annotation.Validated;
 import graphql.GraphQLContext;
 import graphql.schema.DataFetchingEnvironment;
 
-import lombok.RequiredArgsConstructor;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.dataloader.DataLoader;
+import reactor.core.publisher.Mono;
+
 
 @Validated
 @Controller
-@RequiredArgsConstructor
 public class SudokuResolver {
     private final SudokusService sudokusService;
 
+    public SudokuResolver(SudokusService sudokusService, BatchLoaderRegistry batchLoaderRegistry) {
+        this.sudokusService = sudokusService;
+
+        // the DataLoader is registered under the name of the value type, DataLoader<FavouritedByKey, UserFeedModel> method parameters are resolved by it
+        batchLoaderRegistry.forTypePair(FavouritedByKey.class, UserFeedModel.class)
+                .registerMappedBatchLoader((keys, batchLoaderEnvironment) -> Mono.fromCallable(() -> sudokusService.findUsersWhoLikeSudokus(keys)));
+    }
+
     @PreAuthorize("permitAll()")
     @SchemaMapping(typeName = "Query", field = "sudokuFeed")
     public SudokuFeedModel sudokuFeed(
@@ -39,6 +58,8 @@ public class SudokuResolver {
             @Argument @Size(min = 24, message = "{validation.mongo-id.size.too-short}") @Size(max = 24, message = "{validation.mongo-id.size.too-long}") String sudokuCursor, // nullable: true
             //    @Max(value = 100, message = "You can request data from up to {value} sudoku{value > 1 ? 's' : ''}")
             @Argument @Max(value = 50, message = "{validation.sudokus-limit}") @NotNull Integer sudokusLimit,
+            @Argument @Min(value = 1, message = "{validation.difficulty}") @Max(value = 10, message = "{validation.difficulty}") Integer minDifficulty, // nullable: true
+            @Argument @Min(value = 1, message = "{validation.difficulty}") @Max(value = 10, message = "{validation.difficulty}") Integer maxDifficulty, // nullable: true
             DataFetchingEnvironment env,
             GraphQLContext graphQLContext
     ) {
@@ -50,7 +71,12 @@ public class SudokuResolver {
 
         // DataFetchingFieldSelectionSet s = env.getSelectionSet();
         // if (s.contains("sudokuCursor"))
-        return this.sudokusService.sudokuFeed(sudokusLimit, sudokuCursor);
+
+        // only the fields selected in the query are read from the db
+        SudokuFeedModel feed = this.sudokusService.sudokuFeed(sudokusLimit, sudokuCursor, minDifficulty, maxDifficulty, SudokuUtils.sudokuModelProperties(env.getSelectionSet(), "sudokus/"));
+        AnonymousResponseCache.tag(graphQLContext, AnonymousResponseCache.FEED_TAG);
+        feed.getSudokus().forEach(sudoku -> AnonymousResponseCache.tag(graphQLContext, AnonymousResponseCache.sudokuTag(sudoku.getId())));
+        return feed;
     }
 
     @PreAuthorize("permitAll()")
@@ -68,7 +94,8 @@ public class SudokuResolver {
         // DataFetchingFieldSelectionSet s = env.getSelectionSet();
         // if (s.contains("author"))
 
-        return this.sudokusService.findOne(sudokuId);
+        AnonymousResponseCache.tag(graphQLContext, AnonymousResponseCache.sudokuTag(sudokuId));
+        return this.sudokusService.findOne(sudokuId, SudokuUtils.sudokuModelProperties(env.getSelectionSet(), ""));
     }
 
     @PreAuthorize("hasAuthority('user:create') or hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
@@ -158,48 +185,29 @@ public class SudokuResolver {
 
     // nested ----------------------------------------------------------------------------------------------------------
 
-    @SchemaMapping(typeName = "SudokuModel", field = "author")
-    public UserModel author(
-            DataFetchingEnvironment env,
-            GraphQLContext graphQLContext,
-            SudokuModel parent
-    ) {
+    // @BatchMapping registers a DataLoader for the field. Instead of one call per SudokuModel, graphql-java collects every SudokuModel of the current level (e.g. the whole feed page) and the method is called once with all of them, so the authors are loaded with a single { _id: { $in: [...] } } query.
+    // The author id is carried on SudokuModel, the sudokus do not have to be fetched again to find out who wrote them.
+    @BatchMapping(typeName = "SudokuModel", field = "author")
+    public Map<SudokuModel, UserModel> authors(List<SudokuModel> sudokus) {
         //  In some situations, graphql outperforms RESTful APIs, for example, allowing multiple queries in a single request, querying nested resources
-
-        // env.getExecutionStepInfo().getParent().getArgument("id")
-        // env.getExecutionStepInfo().getParent();
-        // env.getVariables().get("sudokuId");
-
-        return this.sudokusService.findSudokuAuthor(parent.getId());
+        return this.sudokusService.findSudokusAuthors(sudokus);
     }
 
-    //    @BatchMapping(typeName = "SudokuModel", field = "author")
-    //    public Map<SudokuModel, UserModel> authors(List<SudokuModel> sudokus) {
-    //        return this.sudokusService.findSudokusAuthors(sudokus);
-    //    }
-
+    // @BatchMapping methods cannot take field arguments, so favouritedBy goes through a DataLoader registered by hand (see the constructor) whose key carries the arguments next to the sudoku id. Every parent on the page calls load(), graphql-java dispatches the collected keys once and the repository answers them with one aggregation.
     @SchemaMapping(typeName = "SudokuModel", field = "favouritedBy")
-    public UserFeedModel favouritedBy(
+    public CompletableFuture<UserFeedModel> favouritedBy(
             DataFetchingEnvironment env,
             GraphQLContext graphQLContext,
             SudokuModel parent,
             @Argument("userCursor") @Size(min = 24, message = "{validation.mongo-id.size.too-short}") @Size(max = 24, message = "{validation.mongo-id.size.too-long}") String userCursor, // nullable: true
             //    @Max(value = 100, message = "You can request data from up to {value} user{value > 1 ? 's' : ''}")
-            @Argument("usersLimit") @Max(value = 50, message = "{validation.sudokus-limit}") @NotNull Integer usersLimit
+            @Argument("usersLimit") @Max(value = 50, message = "{validation.sudokus-limit}") @NotNull Integer usersLimit,
+            DataLoader<FavouritedByKey, UserFeedModel> favouritedByLoader
     ) {
-        return this.sudokusService.findUsersWhoLikeSudoku(parent.getId(), usersLimit, userCursor);
+        AnonymousResponseCache.tag(graphQLContext, AnonymousResponseCache.favouritesTag(parent.getId()));
+        return favouritedByLoader.load(new FavouritedByKey(parent.getId(), usersLimit, userCursor));
     }
 
-// there is no point in implementing this as anyway each favoritedBy query requires a separate cursor as argument
-//    @BatchMapping(typeName = "Sudoku", field = "favoritedBy")
-//    public Map<SudokuModel, UserFeedModel> manyFavoritedBy(
-//            List<SudokuModel> parents,
-//            @Argument("usersLimit") int usersLimit,
-//            @Argument("userCursor") String userCursor,
-//            GraphQLContext graphQLContext,
-//            DataFetchingEnvironment env
-//    ) {}
-
 // there is no need to define batch mapping for the list of sudokus because they are retrieved as feed in the SudokuFeed model
 //    @BatchMapping (typeName = "SudokuFeed", field = "sudokus")
 //    public Map<SudokuFeed, List<SudokuModel>> sudokus(List<SudokuFeed> sudokuFeeds) {
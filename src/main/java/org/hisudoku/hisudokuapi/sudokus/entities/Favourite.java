@@ -0,0 +1,34 @@
+package org.hisudoku.hisudokuapi.sudokus.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.MongoId;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.time.LocalDateTime;
+
+// One document per (sudoku, user) like. It replaces the favourited_by array that used to be embedded in the sudoku document - that array grew with every like, so popular sudokus were heading for the 16 MB document limit and every read of a sudoku carried the whole list of likers.
+// Both references are stored as ObjectIds, so the edges can be joined with users/sudokus by _id and the compound indexes stay small. The unique indexes { sudoku_id: 1, user_id: -1 } and { user_id: 1, sudoku_id: -1 } (see MongoIndexConfiguration) make a like idempotent and serve the cursor-paginated queries in both directions.
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "favourites")
+public class Favourite {
+    @MongoId(FieldType.OBJECT_ID)
+    private String id;
+
+    @Field(name = "sudoku_id", targetType = FieldType.OBJECT_ID)
+    private String sudokuId; // ref: 'Sudoku'
+
+    @Field(name = "user_id", targetType = FieldType.OBJECT_ID)
+    private String userId; // ref: 'User'
+
+    @Field(name = "created_at")
+    private LocalDateTime createdAt;
+}
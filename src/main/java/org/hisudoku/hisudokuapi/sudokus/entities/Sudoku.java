@@ -11,7 +11,6 @@ import org.springframework.data.mongodb.core.mapping.MongoId;
 import org.springframework.data.mongodb.core.mapping.FieldType;
 
 import java.time.LocalDateTime;
-import java.util.Set;
 
 @Getter
 @Setter
@@ -33,12 +32,22 @@ public class Sudoku {
 
     private String content;
 
+    // computed by the solver when the content is written, so reads never have to solve anything
+    private Boolean solvable;
+
+    private Boolean unique; // exactly one solution exists
+
+    private String solution; // same format as content, null for unsolvable sudokus
+
+    // SHA-256 of the minimal representative of the sudoku symmetry class (see SudokuCanonicalizer), sparse unique index - relabeled, rotated or shuffled copies of a published sudoku are rejected by the index
+    @Field(name = "canonical_hash")
+    private String canonicalHash;
+
+    private Integer difficulty; // 1..10 grade of the hardest technique needed to solve it, see SudokuGrader; indexed together with _id for the feed filter
+
     // stats
     @Field(name = "favourite_count")
-    private Integer favouriteCount;
-
-    @Field(name = "favourited_by")
-    private Set<String> favouritedBy; // ObjectId, ref: 'User'
+    private Integer favouriteCount; // kept next to the sudoku, the likes themselves live in the favourites collection (see Favourite); documents not migrated yet still carry the old favourited_by array, it is read only by FavouriteComplexQueriesRepository
 }
 
 // -------------------------------------------------------------------------------------------------------------------
@@ -0,0 +1,10 @@
+package org.hisudoku.hisudokuapi.sudokus.models;
+
+import lombok.Data;
+
+// One (sudoku, user) pair of the favourites edges, the key under which FavouriteToggleBuffer collapses the toggles of a user on a sudoku
+@Data
+public class FavouriteKey {
+    private final String sudokuId;
+    private final String userId;
+}
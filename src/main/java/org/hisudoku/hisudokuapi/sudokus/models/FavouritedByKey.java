@@ -0,0 +1,11 @@
+package org.hisudoku.hisudokuapi.sudokus.models;
+
+import lombok.Data;
+
+// DataLoader key of SudokuModel.favouritedBy - the preview of users who liked a sudoku depends on the field arguments as well, so they are part of the key
+@Data
+public class FavouritedByKey {
+    private final String sudokuId;
+    private final int usersLimit;
+    private final String userCursor;
+}
@@ -12,9 +12,13 @@ public class SudokuModel {
     private final String id;
     private final LocalDateTime createdAt;
     private final LocalDateTime updatedAt;
+    private final String authorId;
     private final UserModel author;
     private final String content;
     private final Integer favouriteCount;
+    private final Boolean solvable;
+    private final Boolean unique;
+    private final Integer difficulty;
     private final UserFeedModel favouritedBy;
 }
 
@@ -0,0 +1,318 @@
+package org.hisudoku.hisudokuapi.sudokus.repositories;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.hisudoku.hisudokuapi.sudokus.entities.Favourite;
+import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
+import org.hisudoku.hisudokuapi.sudokus.models.FavouriteKey;
+import org.hisudoku.hisudokuapi.users.entities.HSUser;
+
+import org.springframework.stereotype.Repository;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.result.DeleteResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+// Queries on the favourites edge collection (see Favourite). Pagination follows the feeds: ids sorted descending, the cursor is the first id of the next page and is inclusive, callers ask for limit + 1 ids to find out whether there is a next page.
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class FavouriteComplexQueriesRepository {
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
+    private static final String MIGRATIONS_COLLECTION = "migrations";
+    private static final String EMBEDDED_FAVOURITES_MIGRATION = "embedded_favourites";
+
+    private final MongoTemplate mongoTemplate;
+
+    // The online migration from the embedded Sudoku.favourited_by arrays. Until the background sweep (SchedulingConfiguration) has gone through the whole sudokus collection, every read and write of the edges of a sudoku first migrates that sudoku, so the edges are complete for whatever is being looked at. Once the sweep finds nothing left to migrate this is skipped.
+    // The progress of the sweep is stored in the migrations collection, so a restarted instance or another replica continues where the sweep stopped and skips it altogether once it is done; this flag only caches that the stored migration is done.
+    private volatile boolean embeddedFavouritesMigrated = false;
+
+    public boolean exists(String sudokuId, String userId) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("sudokuId").is(sudokuId).and("userId").is(userId));
+
+        return mongoTemplate.exists(query, Favourite.class);
+    }
+
+    // returns false when the user already likes the sudoku, the unique { sudoku_id, user_id } index rejects the second edge
+    public boolean addOne(String sudokuId, String userId) {
+        Favourite favourite = new Favourite();
+        favourite.setSudokuId(sudokuId);
+        favourite.setUserId(userId);
+        favourite.setCreatedAt(LocalDateTime.now(ZoneOffset.UTC));
+
+        try {
+            mongoTemplate.insert(favourite);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    public boolean removeOne(String sudokuId, String userId) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("sudokuId").is(sudokuId).and("userId").is(userId));
+
+        return mongoTemplate.remove(query, Favourite.class).getDeletedCount() > 0;
+    }
+
+    // The net changes collected by FavouriteToggleBuffer (true: the user likes the sudoku now, false: not anymore) in one unordered bulk write, an upsert per like and a delete per unlike.
+    // Returns by how much the likes of every changed sudoku changed. The bulk result lists which upserts inserted an edge, so likes are counted exactly, an edge inserted meanwhile by someone else is not counted twice. Deletes are only reported as a total - when all of them deleted an edge they are counted as well, otherwise (the edges of a removed account went away meanwhile) the sudokus with unlikes are left out of the map and have to be counted again (see countBySudokus).
+    public Map<String, Integer> applyChanges(Map<FavouriteKey, Boolean> changes) {
+        List<FavouriteKey> likes = changes.entrySet().stream().filter(Map.Entry::getValue).map(Map.Entry::getKey).toList();
+        List<FavouriteKey> unlikes = changes.entrySet().stream().filter(change -> !change.getValue()).map(Map.Entry::getKey).toList();
+
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Favourite.class);
+        for (FavouriteKey like : likes) { // the upserts go first, their indexes in the bulk are their indexes in likes
+            bulkOperations.upsert(
+                    new Query(Criteria.where("sudokuId").is(like.getSudokuId()).and("userId").is(like.getUserId())),
+                    new Update().setOnInsert("createdAt", now)
+            );
+        }
+        for (FavouriteKey unlike : unlikes) {
+            bulkOperations.remove(new Query(Criteria.where("sudokuId").is(unlike.getSudokuId()).and("userId").is(unlike.getUserId())));
+        }
+
+        BulkWriteResult result;
+        try {
+            result = bulkOperations.execute();
+        } catch (BulkOperationException e) {
+            // an upsert racing with an insert of the same edge loses to the unique index, the edge exists either way and was counted by whoever inserted it
+            if (e.getErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY_ERROR_CODE)) {
+                throw e;
+            }
+            result = e.getResult();
+        }
+
+        Map<String, Integer> deltas = new HashMap<>();
+        changes.keySet().forEach(key -> deltas.put(key.getSudokuId(), 0));
+        for (BulkWriteUpsert upsert : result.getUpserts()) {
+            deltas.merge(likes.get(upsert.getIndex()).getSudokuId(), 1, Integer::sum);
+        }
+        if (result.getDeletedCount() == unlikes.size()) {
+            unlikes.forEach(unlike -> deltas.merge(unlike.getSudokuId(), -1, Integer::sum));
+        } else {
+            unlikes.forEach(unlike -> deltas.remove(unlike.getSudokuId()));
+        }
+        return deltas;
+    }
+
+    // sudoku id -> number of likes, sudokus nobody likes are not in the map
+    public Map<String, Integer> countBySudokus(Collection<String> sudokusIds) {
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document("sudoku_id", new Document("$in", sudokusIds.stream().filter(ObjectId::isValid).map(ObjectId::new).toList()))),
+                new Document("$group", new Document("_id", "$sudoku_id").append("count", new Document("$sum", 1)))
+        );
+        Map<String, Integer> counts = new HashMap<>();
+        for (Document row : mongoTemplate.getCollection(mongoTemplate.getCollectionName(Favourite.class)).aggregate(pipeline)) {
+            counts.put(row.getObjectId("_id").toHexString(), row.getInteger("count"));
+        }
+        return counts;
+    }
+
+    public long removeManyBySudokus(Collection<String> sudokusIds) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("sudokuId").in(sudokusIds));
+        DeleteResult result = mongoTemplate.remove(query, Favourite.class);
+        return result.getDeletedCount();
+    }
+
+    // Returns the ids of the sudokus the user liked, so the caller can decrement their counters. findAllAndRemove deletes the edges it has read by their _id, an edge inserted after the read (e.g. by a FavouriteToggleBuffer flush) is neither removed nor counted, so every removed edge gets its decrement.
+    public List<String> removeManyByUser(String userId) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("userId").is(userId));
+        query.fields().include("sudokuId");
+
+        return mongoTemplate.findAllAndRemove(query, Favourite.class).stream()
+                .map(Favourite::getSudokuId)
+                .toList();
+    }
+
+    // sudoku -> users direction, served by { sudoku_id: 1, user_id: -1 }
+    public List<String> findUsersIdsBySudoku(String sudokuId, int count, String userCursor) {
+        migrateEmbeddedFavourites(List.of(sudokuId));
+
+        Query query = new Query();
+        query.addCriteria(Criteria.where("sudokuId").is(sudokuId));
+        if (userCursor != null) {
+            query.addCriteria(Criteria.where("userId").lte(userCursor));
+        }
+        query.with(Sort.by(Sort.Direction.DESC, "userId"));
+        query.limit(count);
+        query.fields().include("userId");
+
+        return mongoTemplate.find(query, Favourite.class).stream()
+                .map(Favourite::getUserId)
+                .toList();
+    }
+
+    // user -> sudokus direction, served by { user_id: 1, sudoku_id: -1 }; there is no cheap way to find the embedded arrays a user is in, so likes that are still embedded show up here once the background sweep has reached them
+    public List<String> findSudokusIdsByUser(String userId, int count, String sudokuCursor) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("userId").is(userId));
+        if (sudokuCursor != null) {
+            query.addCriteria(Criteria.where("sudokuId").lte(sudokuCursor));
+        }
+        query.with(Sort.by(Sort.Direction.DESC, "sudokuId"));
+        query.limit(count);
+        query.fields().include("sudokuId");
+
+        return mongoTemplate.find(query, Favourite.class).stream()
+                .map(Favourite::getSudokuId)
+                .toList();
+    }
+
+    // The first count likers of every given sudoku (not past userCursor) together with their user documents, in one round trip.
+    // A $group over the edges of the page would read every like of every sudoku on it, so instead each sudoku gets its own $match/$sort/$limit branch - each one is a bounded walk over { sudoku_id: 1, user_id: -1 } - and the branches are concatenated with $unionWith. The users are joined afterwards with a $lookup on _id that projects only what a UserModel is built from.
+    // Returns rows of { sudoku_id, user_id, user } grouped by sudoku id, user is null for likers whose account no longer exists.
+    public Map<String, List<Document>> findLikersBySudokus(List<String> sudokusIds, int count, String userCursor) {
+        Map<String, List<Document>> likers = new HashMap<>();
+        List<ObjectId> ids = sudokusIds.stream().filter(ObjectId::isValid).map(ObjectId::new).toList();
+        if (ids.isEmpty() || (userCursor != null && !ObjectId.isValid(userCursor))) {
+            return likers;
+        }
+        migrateEmbeddedFavourites(sudokusIds);
+
+        String favourites = mongoTemplate.getCollectionName(Favourite.class);
+        List<Document> pipeline = new ArrayList<>(likersOf(ids.get(0), count, userCursor));
+        for (ObjectId id : ids.subList(1, ids.size())) {
+            pipeline.add(new Document("$unionWith", new Document("coll", favourites).append("pipeline", likersOf(id, count, userCursor))));
+        }
+        pipeline.add(new Document("$lookup", new Document("from", mongoTemplate.getCollectionName(HSUser.class))
+                .append("localField", "user_id")
+                .append("foreignField", "_id")
+                .append("pipeline", List.of(new Document("$project", new Document("name", 1).append("role", 1).append("account_usage_info", 1))))
+                .append("as", "user")));
+        pipeline.add(new Document("$project", new Document("sudoku_id", 1).append("user_id", 1).append("user", new Document("$first", "$user"))));
+
+        for (Document row : mongoTemplate.getCollection(favourites).aggregate(pipeline)) {
+            likers.computeIfAbsent(row.getObjectId("sudoku_id").toHexString(), key -> new ArrayList<>()).add(row);
+        }
+        return likers;
+    }
+
+    private static List<Document> likersOf(ObjectId sudokuId, int count, String userCursor) {
+        Document match = new Document("sudoku_id", sudokuId);
+        if (userCursor != null) {
+            match.append("user_id", new Document("$lte", new ObjectId(userCursor)));
+        }
+        return List.of(
+                new Document("$match", match),
+                new Document("$sort", new Document("user_id", -1)),
+                new Document("$limit", count)
+        );
+    }
+
+    // ONLINE MIGRATION ------------------------------------------------------------------------------------------------
+    public boolean isEmbeddedFavouritesMigrated() {
+        return embeddedFavouritesMigrated;
+    }
+
+    // Migrates the next batch of sudokus that still embed favourited_by, walking the collection in _id order from where the previous batch (of any instance) stopped. Returns the number of migrated sudokus, 0 means the sweep is over.
+    public int migrateNextEmbeddedFavouritesBatch(int batchSize) {
+        if (embeddedFavouritesMigrated) {
+            return 0;
+        }
+        Document progress = mongoTemplate.findById(EMBEDDED_FAVOURITES_MIGRATION, Document.class, MIGRATIONS_COLLECTION);
+        if (progress != null && progress.getBoolean("done", false)) {
+            embeddedFavouritesMigrated = true;
+            return 0;
+        }
+        ObjectId lastSweptSudokuId = progress == null ? null : progress.getObjectId("last_swept_sudoku_id");
+
+        Query query = new Query();
+        if (lastSweptSudokuId != null) {
+            query.addCriteria(Criteria.where("_id").gt(lastSweptSudokuId));
+        }
+        query.addCriteria(Criteria.where("favourited_by").exists(true));
+        query.with(Sort.by(Sort.Direction.ASC, "_id"));
+        query.limit(batchSize);
+        query.fields().include("favourited_by");
+
+        List<Document> sudokus = mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(Sudoku.class));
+        for (Document sudoku : sudokus) {
+            migrate(sudoku);
+        }
+        saveEmbeddedFavouritesProgress(sudokus.isEmpty() ? null : sudokus.get(sudokus.size() - 1).getObjectId("_id"), sudokus.isEmpty());
+        if (sudokus.isEmpty()) {
+            embeddedFavouritesMigrated = true;
+        }
+        return sudokus.size();
+    }
+
+    // Two replicas may sweep the same batch (migrate is idempotent), $max keeps the stored position from moving back when the slower one saves last, and done is never reset once set.
+    private void saveEmbeddedFavouritesProgress(ObjectId lastSweptSudokuId, boolean done) {
+        Update update = new Update().set("updated_at", LocalDateTime.now(ZoneOffset.UTC));
+        if (lastSweptSudokuId != null) {
+            update.max("last_swept_sudoku_id", lastSweptSudokuId);
+        }
+        if (done) {
+            update.set("done", true);
+        } else {
+            update.setOnInsert("done", false);
+        }
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(EMBEDDED_FAVOURITES_MIGRATION)), update, MIGRATIONS_COLLECTION);
+    }
+
+    public void migrateEmbeddedFavourites(Collection<String> sudokusIds) {
+        if (embeddedFavouritesMigrated) {
+            return;
+        }
+        Query query = new Query();
+        query.addCriteria(Criteria.where("_id").in(sudokusIds.stream().filter(ObjectId::isValid).map(ObjectId::new).toList()));
+        query.addCriteria(Criteria.where("favourited_by").exists(true));
+        query.fields().include("favourited_by");
+
+        for (Document sudoku : mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(Sudoku.class))) {
+            migrate(sudoku);
+        }
+    }
+
+    // Copies the embedded likers into edges and only then removes the array, on the condition that it is still the array that was copied. Upserts make the copy idempotent, so a crash in between, or two instances migrating the same sudoku, only repeat work. favourite_count is left as it is, it already counts the embedded likers.
+    private void migrate(Document sudoku) {
+        ObjectId sudokuId = sudoku.getObjectId("_id");
+        List<String> likersIds = sudoku.getList("favourited_by", String.class, List.of());
+
+        List<String> validLikersIds = likersIds.stream().filter(ObjectId::isValid).toList();
+        if (!validLikersIds.isEmpty()) {
+            LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+            BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Favourite.class);
+            for (String likerId : validLikersIds) {
+                bulkOperations.upsert(
+                        new Query(Criteria.where("sudokuId").is(sudokuId.toHexString()).and("userId").is(likerId)),
+                        new Update().setOnInsert("createdAt", now)
+                );
+            }
+            try {
+                bulkOperations.execute();
+            } catch (BulkOperationException e) {
+                // concurrent upserts of the same edge can lose the race to the unique index, the edge exists either way
+                if (e.getErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY_ERROR_CODE)) {
+                    throw e;
+                }
+            }
+        }
+
+        Query query = new Query();
+        query.addCriteria(Criteria.where("_id").is(sudokuId).and("favourited_by").is(likersIds));
+        mongoTemplate.updateFirst(query, new Update().unset("favourited_by"), mongoTemplate.getCollectionName(Sudoku.class));
+        log.debug("Migrated {} embedded favourites of sudoku {}", validLikersIds.size(), sudokuId);
+    }
+}
@@ -2,11 +2,15 @@ package org.hisudoku.hisudokuapi.sudokus.repositories;
 
 import lombok.RequiredArgsConstructor;
 
-import org.hisudoku.hisudokuapi.general.exceptions.OperationNotAllowedException;
+import org.hisudoku.hisudokuapi.general.exceptions.DuplicateSudokuException;
 import org.hisudoku.hisudokuapi.general.exceptions.SudokuNotFoundException;
 import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
+import org.hisudoku.hisudokuapi.sudokus.models.FavouriteKey;
+import org.hisudoku.hisudokuapi.sudokus.models.FavouritedByKey;
 import org.hisudoku.hisudokuapi.sudokus.models.SudokuFeedModel;
 import org.hisudoku.hisudokuapi.sudokus.models.SudokuModel;
+import org.hisudoku.hisudokuapi.sudokus.services.SudokuAnalysis;
+import org.hisudoku.hisudokuapi.sudokus.services.SudokuGrader;
 import org.hisudoku.hisudokuapi.sudokus.services.SudokuUtils;
 import org.hisudoku.hisudokuapi.users.entities.HSUser;
 import org.hisudoku.hisudokuapi.users.models.UserFeedModel;
@@ -15,13 +19,17 @@ import org.hisudoku.hisudokuapi.users.repositories.HSUserComplexQueriesRepositor
 import org.hisudoku.hisudokuapi.users.services.HSUserUtils;
 
 import org.springframework.stereotype.Repository;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import com.mongodb.client.result.DeleteResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
@@ -33,18 +41,36 @@ import java.util.stream.Collectors;
 public class SudokuComplexQueriesRepository {
     private final MongoTemplate mongoTemplate;
     private final HSUserComplexQueriesRepository hsUserComplexQueriesRepository;
+    private final FavouriteComplexQueriesRepository favouriteComplexQueriesRepository;
 
-    public Sudoku addOne(String content, String authorId) {
+    public Sudoku addOne(String content, String authorId, SudokuAnalysis analysis) {
         Sudoku sudoku = new Sudoku();
         sudoku.setAuthorId(authorId);
         sudoku.setContent(content);
+        sudoku.setSolvable(analysis.solvable());
+        sudoku.setUnique(analysis.unique());
+        sudoku.setSolution(analysis.solution());
+        sudoku.setDifficulty(analysis.difficulty());
+        sudoku.setCanonicalHash(analysis.canonicalHash());
         sudoku.setCreatedAt(LocalDateTime.now(ZoneOffset.UTC));
         sudoku.setUpdatedAt(LocalDateTime.now(ZoneOffset.UTC));
         sudoku.setFavouriteCount(0);
-//        sudoku.setFavouritedBy(Collections.emptySet());
-        sudoku.setFavouritedBy(new HashSet<>());
 
-        return mongoTemplate.insert(sudoku);
+        try {
+            return mongoTemplate.insert(sudoku);
+        } catch (DuplicateKeyException e) {
+            // the unique canonical_hash index rejected the insert, an equivalent sudoku is already published
+            throw new DuplicateSudokuException(findIdByCanonicalHash(analysis.canonicalHash()));
+        }
+    }
+
+    private String findIdByCanonicalHash(String canonicalHash) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("canonical_hash").is(canonicalHash));
+        query.fields().include("_id");
+
+        Sudoku sudoku = mongoTemplate.findOne(query, Sudoku.class);
+        return sudoku == null ? null : sudoku.getId();
     }
 
     public Optional<Sudoku> removeOneById(String id) {
@@ -52,20 +78,32 @@ public class SudokuComplexQueriesRepository {
         query.addCriteria(Criteria.where("_id").is(id));
         // In Spring data for MongoDB, you can use remove() and findAndRemove() to delete documents from MongoDB. remove() – delete single or multiple documents. findAndRemove() – delete single document, and returns the deleted document. Don’t use findAndRemove() to perform a batch delete (remove multiple documents), only the first document that matches the query will be removed.
 
-        return Optional.ofNullable(mongoTemplate.findAndRemove(query, Sudoku.class));
+        Optional<Sudoku> sudoku = Optional.ofNullable(mongoTemplate.findAndRemove(query, Sudoku.class));
+        sudoku.ifPresent(removed -> favouriteComplexQueriesRepository.removeManyBySudokus(List.of(removed.getId())));
+        return sudoku;
     }
 
     public long removeManyByAuthor(String authorId) {
+        Query idsQuery = new Query();
+        idsQuery.addCriteria(Criteria.where("authorId").is(authorId));
+        idsQuery.fields().include("_id");
+        List<String> sudokusIds = mongoTemplate.find(idsQuery, Sudoku.class).stream()
+                .map(Sudoku::getId)
+                .toList();
+
         Query query = new Query();
         query.addCriteria(Criteria.where("authorId").is(authorId)); //  _id: { $in: ids } }
         DeleteResult result = mongoTemplate.remove(query, Sudoku.class);
+        favouriteComplexQueriesRepository.removeManyBySudokus(sudokusIds);
         return result.getDeletedCount();
     }
 
-    public SudokuFeedModel findMany(int limit, String cursor) {
+    public SudokuFeedModel findMany(int limit, String cursor, Integer minDifficulty, Integer maxDifficulty, Collection<String> properties) {
         Query query = new Query();
+        query.fields().include(properties.toArray(String[]::new));
 
         query.addCriteria(Criteria.where("_id").lte(cursor)); // take younger than cursor
+        addDifficultyCriteria(query, minDifficulty, maxDifficulty);
         query.limit(limit + 1);
         // By utilizing the sort() method, we can organize our query results in either ascending (1) or descending (-1) order based on one or more fields.
         // db.topics.find().sort({ bump_date: -1 })
@@ -74,19 +112,36 @@ public class SudokuComplexQueriesRepository {
         return findMany(query, limit);
     }
 
-    public SudokuFeedModel findMany(int limit) {
+    public SudokuFeedModel findMany(int limit, Integer minDifficulty, Integer maxDifficulty, Collection<String> properties) {
         // final Pageable pageableRequest = PageRequest.of(0, limit);
         // query.with(pageableRequest);
 
         Query query = new Query();
+        query.fields().include(properties.toArray(String[]::new));
+        addDifficultyCriteria(query, minDifficulty, maxDifficulty);
         query.limit(limit + 1);
         query.with(Sort.by(Sort.Direction.DESC, "_id"));
 
         return findMany(query, limit);
     }
 
-    public SudokuFeedModel findManyByAuthor(String authorId, int limit) {
+    private void addDifficultyCriteria(Query query, Integer minDifficulty, Integer maxDifficulty) {
+        if (minDifficulty == null && maxDifficulty == null) {
+            return;
+        }
+        // The range is sent as { difficulty: { $in: [min, ..., max] } } instead of { $gte: min, $lte: max }. With the { difficulty: 1, _id: -1 } index Mongo then reads one index range per difficulty value, each one already ordered by _id, and merges them (SORT_MERGE), so the page is produced straight from the index. A $gte/$lte range would make it sort all matching keys in memory before applying the limit.
+        int from = minDifficulty == null ? SudokuGrader.MIN_DIFFICULTY : Math.max(minDifficulty, SudokuGrader.MIN_DIFFICULTY);
+        int to = maxDifficulty == null ? SudokuGrader.MAX_DIFFICULTY : Math.min(maxDifficulty, SudokuGrader.MAX_DIFFICULTY);
+        List<Integer> difficulties = new ArrayList<>();
+        for (int difficulty = from; difficulty <= to; difficulty++) {
+            difficulties.add(difficulty);
+        }
+        query.addCriteria(Criteria.where("difficulty").in(difficulties));
+    }
+
+    public SudokuFeedModel findManyByAuthor(String authorId, int limit, Collection<String> properties) {
         Query query = new Query();
+        query.fields().include(properties.toArray(String[]::new));
         query.addCriteria(Criteria.where("authorId").is(authorId)); //  _id: { $in: ids } }
         query.limit(limit + 1);
         query.with(Sort.by(Sort.Direction.DESC, "_id"));
@@ -94,8 +149,9 @@ public class SudokuComplexQueriesRepository {
         return findMany(query, limit);
     }
 
-    public SudokuFeedModel findManyByAuthor(String authorId, int limit, String cursor) {
+    public SudokuFeedModel findManyByAuthor(String authorId, int limit, String cursor, Collection<String> properties) {
         Query query = new Query();
+        query.fields().include(properties.toArray(String[]::new));
         query.addCriteria(
                 new Criteria().andOperator(Criteria.where("authorId").is(authorId), Criteria.where("_id").lt(cursor))
         );
@@ -118,7 +174,7 @@ public class SudokuComplexQueriesRepository {
             sudokusCollection.remove(sudokusCollection.size() - 1);
         }
 
-        return new SudokuFeedModel(SudokuUtils.mapToSudokuModelFavouritedByNullAuthorNullDTOs(sudokus), hasNextPage, newCursor);
+        return new SudokuFeedModel(SudokuUtils.mapToSudokuModelFavouritedByNullAuthorNullDTOs(sudokusCollection), hasNextPage, newCursor);
     }
 
     public Optional<Sudoku> findOneById(String sudokuId) { // List<String> fieldsToExclude
@@ -130,48 +186,51 @@ public class SudokuComplexQueriesRepository {
         return Optional.ofNullable(mongoTemplate.findById(sudokuId, Sudoku.class));
     }
 
-    public Optional<HSUser> findSudokuAuthor(String sudokuId) {
-        Sudoku sudoku = findOneById(sudokuId).orElseThrow(() -> new SudokuNotFoundException(sudokuId));
-
-        return hsUserComplexQueriesRepository.findOneById(sudoku.getAuthorId());
+    public Optional<Sudoku> findOneById(String sudokuId, Collection<String> properties) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("_id").is(sudokuId));
+        query.fields().include(properties.toArray(String[]::new));
+        return Optional.ofNullable(mongoTemplate.findOne(query, Sudoku.class));
     }
 
-    public Map<SudokuModel, UserModel> findSudokusAuthors(List<SudokuModel> sudokusModels) {
-        List<String> sudokusIds = sudokusModels.stream().map(SudokuModel::getId).toList();
-
+    public boolean existsById(String sudokuId) {
         Query query = new Query();
-        query.addCriteria(Criteria.where("_id").in(sudokusIds)); //  _id: { $in: ids } }
-        List<Sudoku> sudokusEntities = mongoTemplate.find(query, Sudoku.class);
-
-        List<String> authorsIds = sudokusEntities.stream().map(Sudoku::getAuthorId).toList();
-
-        List<HSUser> authors = hsUserComplexQueriesRepository.findManyByIds(authorsIds);
-
-        return sudokusEntities.stream()
-                .collect(Collectors.toMap(
-                        sudokuEntity -> extractSudokuModel(sudokusModels, sudokuEntity.getId()),
-                        sudokuEntity -> HSUserUtils.mapToUserModelDTO(extractAuthor(authors, sudokuEntity.getAuthorId()
-                                )
-                        )));
+        query.addCriteria(Criteria.where("_id").is(sudokuId));
+        return mongoTemplate.exists(query, Sudoku.class);
     }
 
-    private HSUser extractAuthor(List<HSUser> authors, String authorId) {
-        // findAny() method allows us to find any element from a Stream. We use it when we’re looking for an element without paying an attention to the encounter order. The findFirst() method finds the first element in a Stream. Streams may or may not have a defined encounter order. It depends on the source and the intermediate operations.
-        return authors.stream()
-                .filter(user -> Objects.equals(user.getId(), authorId))
-                .findAny()
-                .orElseThrow(() -> new OperationNotAllowedException("extract author"));
+    public Optional<HSUser> findSudokuAuthor(String sudokuId) {
+        Sudoku sudoku = findOneById(sudokuId, List.of("authorId")).orElseThrow(() -> new SudokuNotFoundException(sudokuId));
+
+        return hsUserComplexQueriesRepository.findOneById(sudoku.getAuthorId());
     }
 
-    private SudokuModel extractSudokuModel(List<SudokuModel> models, String sudokuId) {
-        return models.stream()
-                .filter(model -> Objects.equals(model.getId(), sudokuId))
-                .findAny()
-                .orElseThrow(() -> new OperationNotAllowedException("extract sudoku model"));
+    public Map<SudokuModel, UserModel> findSudokusAuthors(List<SudokuModel> sudokusModels) {
+        // the models already carry the author id, one { _id: { $in: authorsIds } } query resolves the authors of the whole page
+        List<String> authorsIds = sudokusModels.stream()
+                .map(SudokuModel::getAuthorId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+
+        Map<String, UserModel> authorsById = hsUserComplexQueriesRepository.findManyByIds(authorsIds).stream()
+                .collect(Collectors.toMap(HSUser::getId, HSUserUtils::mapToUserModelDTO));
+
+        // Sudokus whose author no longer exists (an admin removes the user, not their sudokus) are left out of the map and resolve to null, which is why SudokuModel.author is nullable in the schema. A non-null author would turn that null into an error that also nulls the parent sudoku, or the whole feed page.
+        Map<SudokuModel, UserModel> authors = new LinkedHashMap<>();
+        for (SudokuModel sudokuModel : sudokusModels) {
+            UserModel author = authorsById.get(sudokuModel.getAuthorId());
+            if (author != null) {
+                authors.put(sudokuModel, author);
+            }
+        }
+        return authors;
     }
 
     public UserFeedModel findUsersWhoLikeSudoku(String sudokuId, int limit, String cursor) {
-        Sudoku sudoku = findOneById(sudokuId).orElseThrow(() -> new SudokuNotFoundException(sudokuId));
+        if (!existsById(sudokuId)) {
+            throw new SudokuNotFoundException(sudokuId);
+        }
 
         Query query = new Query();
 
@@ -183,65 +242,161 @@ public class SudokuComplexQueriesRepository {
         //      new Criteria().andOperator(Criteria.where("name").is(name1), Criteria.where("available").is(available1))
         // )
 
-        query.addCriteria(
-                new Criteria().andOperator(Criteria.where("_id").in(sudoku.getFavouritedBy()), Criteria.where("_id").lt(cursor))
-        );
+        // the page of likers is cut from the { sudoku_id: 1, user_id: -1 } index of the favourites edges, only limit + 1 ids ever reach the users query
+        query.addCriteria(Criteria.where("_id").in(favouriteComplexQueriesRepository.findUsersIdsBySudoku(sudokuId, limit + 1, cursor)));
         query.limit(limit + 1);
         query.with(Sort.by(Sort.Direction.DESC, "_id"));
+        query.fields().include(HSUserUtils.userModelProperties().toArray(String[]::new));
 
         return hsUserComplexQueriesRepository.findMany(query, limit);
     }
 
     public UserFeedModel findUsersWhoLikeSudoku(String sudokuId, int limit) {
-        Sudoku sudoku = findOneById(sudokuId).orElseThrow(() -> new SudokuNotFoundException(sudokuId));
+        return findUsersWhoLikeSudoku(sudokuId, limit, null);
+    }
 
-        Query query = new Query();
+    public Map<FavouritedByKey, UserFeedModel> findUsersWhoLikeSudokus(Collection<FavouritedByKey> keys) {
+        Map<FavouritedByKey, UserFeedModel> result = new HashMap<>();
+
+        // every parent of one favouritedBy selection gets the same arguments, so normally there is a single group here; aliased selections with different arguments get one aggregation each
+        Map<List<Object>, List<FavouritedByKey>> keysByArguments = keys.stream()
+                .collect(Collectors.groupingBy(key -> Arrays.asList(key.getUsersLimit(), key.getUserCursor())));
+
+        for (List<FavouritedByKey> group : keysByArguments.values()) {
+            int limit = group.get(0).getUsersLimit();
+            String cursor = group.get(0).getUserCursor();
+            List<String> sudokusIds = group.stream()
+                    .map(FavouritedByKey::getSudokuId)
+                    .distinct()
+                    .toList();
+
+            Map<String, List<Document>> likers = favouriteComplexQueriesRepository.findLikersBySudokus(sudokusIds, limit + 1, cursor);
+            for (FavouritedByKey key : group) {
+                result.put(key, mapToUserFeed(likers.getOrDefault(key.getSudokuId(), List.of()), limit));
+            }
+        }
+        return result;
+    }
 
-        query.addCriteria(Criteria.where("_id").in(sudoku.getFavouritedBy()));
+    // likers of one sudoku as returned by FavouriteComplexQueriesRepository.findLikersBySudokus - at most limit + 1 rows sorted by user_id descending
+    private UserFeedModel mapToUserFeed(List<Document> likers, int limit) {
+        boolean hasNextPage = likers.size() > limit;
+        String newCursor = hasNextPage ? likers.get(limit).getObjectId("user_id").toHexString() : null;
+
+        List<HSUser> users = new ArrayList<>();
+        for (Document liker : likers.subList(0, Math.min(limit, likers.size()))) {
+            Document user = liker.get("user", Document.class);
+            if (user != null) {
+                users.add(mongoTemplate.getConverter().read(HSUser.class, user));
+            }
+        }
+        return new UserFeedModel(HSUserUtils.mapToUserModelDTOs(users), hasNextPage, newCursor);
+    }
+
+    public SudokuFeedModel findManyFavouritedByUser(String userId, int limit, String cursor, Collection<String> properties) {
+        Query query = new Query();
+        query.fields().include(properties.toArray(String[]::new));
+        query.addCriteria(Criteria.where("_id").in(favouriteComplexQueriesRepository.findSudokusIdsByUser(userId, limit + 1, cursor)));
         query.limit(limit + 1);
         query.with(Sort.by(Sort.Direction.DESC, "_id"));
 
-        return hsUserComplexQueriesRepository.findMany(query, limit);
+        return findMany(query, limit);
     }
 
-    public Optional<Sudoku> updateOneContent(String sudokuId, String newContent) {
+    // the user account is being removed, its likes go away with it - the edges, and until the migration sweep is over also the likes still embedded in favourited_by, which the sweep would otherwise turn into edges of a removed user later
+    public void removeFavouritesOfUser(String userId) {
+        if (!favouriteComplexQueriesRepository.isEmbeddedFavouritesMigrated()) {
+            Query embeddedQuery = new Query();
+            embeddedQuery.addCriteria(Criteria.where("favourited_by").is(userId));
+            mongoTemplate.updateMulti(embeddedQuery, new Update().pull("favourited_by", userId).inc("favourite_count", -1), mongoTemplate.getCollectionName(Sudoku.class));
+        }
+
+        List<String> sudokusIds = favouriteComplexQueriesRepository.removeManyByUser(userId);
+        if (sudokusIds.isEmpty()) {
+            return;
+        }
+        Query query = new Query();
+        query.addCriteria(Criteria.where("_id").in(sudokusIds));
+        mongoTemplate.updateMulti(query, new Update().inc("favourite_count", -1), Sudoku.class);
+    }
+
+    public Optional<Sudoku> updateOneContent(String sudokuId, String newContent, SudokuAnalysis analysis) {
         Query query = new Query();
         query.addCriteria(Criteria.where("_id").is(sudokuId));
 
-        Update update = new Update().set("content", newContent);
+        Update update = new Update()
+                .set("content", newContent)
+                .set("solvable", analysis.solvable())
+                .set("unique", analysis.unique())
+                .set("solution", analysis.solution())
+                .set("difficulty", analysis.difficulty())
+                .set("canonical_hash", analysis.canonicalHash());
         FindAndModifyOptions options = FindAndModifyOptions.options().upsert(false).returnNew(true);
-        Sudoku result = mongoTemplate.findAndModify(query, update, options, Sudoku.class);
+        try {
+            Sudoku result = mongoTemplate.findAndModify(query, update, options, Sudoku.class);
 
-        return Optional.ofNullable(result);
+            return Optional.ofNullable(result);
+        } catch (DuplicateKeyException e) {
+            throw new DuplicateSudokuException(findIdByCanonicalHash(analysis.canonicalHash()));
+        }
     }
 
+    // The membership lives in the favourites collection and the counter in the sudoku, so a single conditional update cannot cover both. Instead the edge write itself is the condition: removing the edge either deletes a document or not, inserting it either passes the unique { sudoku_id, user_id } index or not, and the counter is moved only by the request whose edge write actually flipped the membership. Concurrent double taps therefore end up in a consistent state.
+    // An unlike is two round trips (edge delete + counter findAndModify), a like three (the delete that finds nothing, the insert, the findAndModify); the findAndModify returns only the fields SudokuModel is built from. Until the migration sweep is over a like still embedded in favourited_by is taken back with one conditional update that pulls it and moves the counter together, without migrating the sudoku first.
+    // The edge write and the counter update are two writes, when the second one fails the counter is recounted from the likes so it does not drift (as applyFavourites does).
     public Optional<Sudoku> toggleLike(String sudokuId, String userId) {
-        Sudoku sudoku = findOneById(sudokuId).orElseThrow(() -> new SudokuNotFoundException(sudokuId));
-        boolean hasUser = sudoku.getFavouritedBy().stream().anyMatch((id) -> id.equals(userId)); //indexOf
-
         Query query = new Query();
         query.addCriteria(Criteria.where("_id").is(sudokuId));
-        if (hasUser) {
+        query.fields().include(SudokuUtils.sudokuModelProperties().toArray(String[]::new));
+        FindAndModifyOptions options = FindAndModifyOptions.options().upsert(false).returnNew(true);
+
+        if (!favouriteComplexQueriesRepository.isEmbeddedFavouritesMigrated()) {
+            Query embeddedQuery = Query.of(query).addCriteria(Criteria.where("favourited_by").is(userId));
+            Sudoku unliked = mongoTemplate.findAndModify(embeddedQuery, new Update().pull("favourited_by", userId).inc("favourite_count", -1), options, Sudoku.class);
+            if (unliked != null) {
+                return Optional.of(unliked);
+            }
+        }
+
+        int delta;
+        if (favouriteComplexQueriesRepository.removeOne(sudokuId, userId)) {
             //        {
             //          $pull: { favoritedBy: new mongoose.Types.ObjectId(userId) },
             //          $inc: { favoriteCount: -1 },
             //        },
-            Update update = new Update().pull("favourited_by", userId).inc("favourite_count", -1);
-            FindAndModifyOptions options = FindAndModifyOptions.options().upsert(false).returnNew(true);
-            Sudoku result = mongoTemplate.findAndModify(query, update, options, Sudoku.class);
-
-            return Optional.ofNullable(result);
-        } else {
+            delta = -1;
+        } else if (favouriteComplexQueriesRepository.addOne(sudokuId, userId)) {
             //        {
             //          $push: { favoritedBy: new mongoose.Types.ObjectId(userId) },
             //          $inc: { favoriteCount: 1 },
             //        },
-            Update update = new Update().addToSet("favourited_by", userId).inc("favourite_count", 1);
-            FindAndModifyOptions options = FindAndModifyOptions.options().upsert(false).returnNew(true);
-            Sudoku result = mongoTemplate.findAndModify(query, update, options, Sudoku.class);
+            delta = 1;
+        } else {
+            delta = 0; // a concurrent toggle of the same user inserted the edge between our remove and insert, the sudoku is liked and that request has counted it
+        }
 
-            return Optional.ofNullable(result);
+        Update update = new Update().inc("favourite_count", delta);
+        Sudoku result;
+        try {
+            result = mongoTemplate.findAndModify(query, update, options, Sudoku.class);
+        } catch (RuntimeException e) {
+            if (delta != 0) {
+                try {
+                    recountFavourites(sudokuId);
+                } catch (RuntimeException recountFailure) {
+                    e.addSuppressed(recountFailure);
+                }
+            }
+            throw e;
         }
+
+        if (result == null) {
+            if (delta > 0) {
+                favouriteComplexQueriesRepository.removeOne(sudokuId, userId); // the sudoku does not exist, do not leave the edge behind
+            }
+            throw new SudokuNotFoundException(sudokuId);
+        }
+        return Optional.of(result);
         // update.addToSet("targetField", "newValue");
         // update.addToSet("targetField").each("value1", "value2");         //    Add items to a Set (non-duplicatable)
         // update.push("targetField").each("value1", "value2");             //    Append items to an Array (duplicatable)
@@ -249,4 +404,63 @@ public class SudokuComplexQueriesRepository {
         // update.pull("targetField", "value");                             //    Remove item by value
         // update.pullAll("targetField", new Object[]{"value1", "value2"}); //    Remove multiple items
     }
+
+    // Writes the toggles collected by FavouriteToggleBuffer: the edges with one bulk write and then the counters with another one, a single update per sudoku however many of its likes changed, instead of a findAndModify of the sudoku per toggle. As in toggleLike the counters are moved by what the edge writes actually did.
+    // Likes of sudokus or users that were removed in the meantime are dropped, the removal has already taken their edges and counters with it.
+    public void applyFavourites(Map<FavouriteKey, Boolean> changes) {
+        Set<String> existingSudokusIds = existingIds(changes.entrySet().stream().filter(Map.Entry::getValue).map(change -> change.getKey().getSudokuId()).collect(Collectors.toSet()), Sudoku.class);
+        Set<String> existingUsersIds = existingIds(changes.entrySet().stream().filter(Map.Entry::getValue).map(change -> change.getKey().getUserId()).collect(Collectors.toSet()), HSUser.class);
+        Map<FavouriteKey, Boolean> applicable = changes.entrySet().stream()
+                .filter(change -> !change.getValue() || (existingSudokusIds.contains(change.getKey().getSudokuId()) && existingUsersIds.contains(change.getKey().getUserId())))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (applicable.isEmpty()) {
+            return;
+        }
+
+        Map<String, Integer> deltas = favouriteComplexQueriesRepository.applyChanges(applicable);
+        Set<String> recounted = applicable.keySet().stream()
+                .map(FavouriteKey::getSudokuId)
+                .filter(sudokuId -> !deltas.containsKey(sudokuId))
+                .collect(Collectors.toSet());
+        Map<String, Integer> counts = recounted.isEmpty() ? Map.of() : favouriteComplexQueriesRepository.countBySudokus(recounted);
+
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Sudoku.class);
+        int updates = 0;
+        for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+            if (delta.getValue() != 0) {
+                bulkOperations.updateOne(new Query(Criteria.where("_id").is(delta.getKey())), new Update().inc("favourite_count", delta.getValue()));
+                updates++;
+            }
+        }
+        for (String sudokuId : recounted) {
+            bulkOperations.updateOne(new Query(Criteria.where("_id").is(sudokuId)), new Update().set("favourite_count", counts.getOrDefault(sudokuId, 0)));
+            updates++;
+        }
+        if (updates > 0) {
+            bulkOperations.execute();
+        }
+    }
+
+    // favourite_count derived again from the likes: the edges plus, on a sudoku the migration sweep has not reached yet, the likes still embedded in favourited_by
+    private void recountFavourites(String sudokuId) {
+        int edges = favouriteComplexQueriesRepository.countBySudokus(List.of(sudokuId)).getOrDefault(sudokuId, 0);
+        Document embedded = new Document("$size", new Document("$ifNull", List.of("$favourited_by", List.of())));
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(Sudoku.class)).updateOne(
+                new Document("_id", new ObjectId(sudokuId)),
+                List.of(new Document("$set", new Document("favourite_count", new Document("$add", List.of(edges, embedded)))))
+        );
+    }
+
+    private Set<String> existingIds(Set<String> ids, Class<?> entityClass) {
+        if (ids.isEmpty()) {
+            return Set.of();
+        }
+        Query query = new Query();
+        query.addCriteria(Criteria.where("_id").in(ids.stream().filter(ObjectId::isValid).map(ObjectId::new).toList()));
+        query.fields().include("_id");
+
+        return mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(entityClass)).stream()
+                .map(document -> document.getObjectId("_id").toHexString())
+                .collect(Collectors.toSet());
+    }
 }
@@ -0,0 +1,235 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.hisudoku.hisudokuapi.general.exceptions.SudokuNotFoundException;
+import org.hisudoku.hisudokuapi.general.graphql.AnonymousResponseCache;
+import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
+import org.hisudoku.hisudokuapi.sudokus.models.FavouriteKey;
+import org.hisudoku.hisudokuapi.sudokus.repositories.FavouriteComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.sudokus.repositories.SudokuComplexQueriesRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+// Write-behind buffer of toggleFavoriteSudoku. Every toggle used to be a findAndModify of the sudoku document (see SudokuComplexQueriesRepository.toggleLike), so the likes of a popular sudoku queued up on the write lock of that one document. Here a toggle only reads - the sudoku and, the first time a user toggles it, whether the user likes it - and records the state the (sudoku, user) pair should end up in. Repeated toggles of the same pair collapse, a like undone before the flush is never written at all.
+// SchedulingConfiguration flushes the buffer every flush-interval: one bulk write of the edges, one bulk write of the counters (SudokuComplexQueriesRepository.applyFavourites). A flush that fails puts its toggles back, the next one retries them; on shutdown the buffer is drained before the MongoTemplate goes away and later toggles are written right away.
+// Reads see the pending toggles: the favouriteCount of every sudoku SudokusService returns includes them (pendingLikes) and a user's own favourite sudokus are flushed before they are listed (flushUser). The favouritedBy previews pick them up with the next flush, which also evicts them from AnonymousResponseCache. The buffer is local to this instance, toggles of one user on one sudoku go through one instance as long as the requests do, on different instances the counters stay exact (they follow the edge writes) but which toggle wins is decided by the flushes.
+// Metrics: favourites.buffer.pending (pairs waiting for a flush), favourites.buffer.toggles and favourites.buffer.writes (toggles received and edge writes they were collapsed into), favourites.buffer.flush (flush latency by outcome).
+@Slf4j
+@Service
+public class FavouriteToggleBuffer {
+    private final SudokuComplexQueriesRepository sudokuComplexQueriesRepository;
+    private final FavouriteComplexQueriesRepository favouriteComplexQueriesRepository;
+    private final AnonymousResponseCache anonymousResponseCache;
+    private final boolean enabled;
+
+    private final Map<FavouriteKey, PendingToggle> pending = new ConcurrentHashMap<>(); // toggled since the last flush; only pairs whose state differs from the db, a pair toggled back is removed
+    private final Map<FavouriteKey, PendingToggle> flushing = new ConcurrentHashMap<>(); // taken by the running flush and not written yet, a toggle in the meantime starts from their state
+    private final Map<String, Integer> pendingLikes = new ConcurrentHashMap<>(); // sudoku id -> likes of both maps not written yet (negative for unlikes), no entry for 0
+    private final AtomicLong releasedFlushes = new AtomicLong(); // incremented before a successful flush removes the pairs it has written from flushing, see toggle
+    private final ReentrantLock flushLock = new ReentrantLock(); // one flush at a time, not synchronized - toggles may run on virtual threads and flushUser waits for a running flush
+    private volatile boolean closed = false;
+
+    private final Counter toggles;
+    private final Counter writes;
+    private final Timer flushSucceeded;
+    private final Timer flushFailed;
+
+    public FavouriteToggleBuffer(
+            @Value("${application.sudokus.favourite-buffer.enabled}") boolean enabled,
+            SudokuComplexQueriesRepository sudokuComplexQueriesRepository,
+            FavouriteComplexQueriesRepository favouriteComplexQueriesRepository,
+            AnonymousResponseCache anonymousResponseCache,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.sudokuComplexQueriesRepository = sudokuComplexQueriesRepository;
+        this.favouriteComplexQueriesRepository = favouriteComplexQueriesRepository;
+        this.anonymousResponseCache = anonymousResponseCache;
+
+        Gauge.builder("favourites.buffer.pending", this, buffer -> buffer.pending.size() + buffer.flushing.size())
+                .description("(sudoku, user) pairs toggled and not written yet")
+                .register(meterRegistry);
+        this.toggles = Counter.builder("favourites.buffer.toggles")
+                .description("Favourite toggles received")
+                .register(meterRegistry);
+        this.writes = Counter.builder("favourites.buffer.writes")
+                .description("Favourite edge writes the toggles were collapsed into")
+                .register(meterRegistry);
+        this.flushSucceeded = Timer.builder("favourites.buffer.flush")
+                .tag("outcome", "success")
+                .register(meterRegistry);
+        this.flushFailed = Timer.builder("favourites.buffer.flush")
+                .tag("outcome", "failure")
+                .register(meterRegistry);
+    }
+
+    // returns the sudoku with the fields SudokuModel is built from, its favouriteCount includes the toggles that are not written yet
+    public Optional<Sudoku> toggle(String sudokuId, String userId) {
+        if (!enabled || closed) {
+            Optional<Sudoku> sudoku = sudokuComplexQueriesRepository.toggleLike(sudokuId, userId);
+            anonymousResponseCache.invalidate(AnonymousResponseCache.favouritesTag(sudokuId));
+            return sudoku;
+        }
+        Sudoku sudoku = sudokuComplexQueriesRepository.findOneById(sudokuId, SudokuUtils.sudokuModelProperties())
+                .orElseThrow(() -> new SudokuNotFoundException(sudokuId));
+        if (!favouriteComplexQueriesRepository.isEmbeddedFavouritesMigrated()) {
+            favouriteComplexQueriesRepository.migrateEmbeddedFavourites(List.of(sudokuId));
+        }
+
+        // The current state of the pair is the pending one, or the one being flushed, or else the one in the db. The db is read before compute, a blocking query must not hold the lock of the map bin (and with it the toggles of other pairs in the bin). The read is only used when no flush has released a pair since it was made - otherwise the flush may have written this very pair in between - and is repeated if one has.
+        FavouriteKey key = new FavouriteKey(sudokuId, userId);
+        boolean applied = false;
+        while (!applied) {
+            long releasedAtRead = releasedFlushes.get();
+            Boolean likedInDb = pending.containsKey(key) || flushing.containsKey(key) ? null : favouriteComplexQueriesRepository.exists(sudokuId, userId);
+            boolean[] toggledNow = {false};
+            pending.compute(key, (k, toggled) -> {
+                PendingToggle inFlight = toggled == null ? flushing.get(k) : null;
+                if (toggled == null && inFlight == null && (likedInDb == null || releasedFlushes.get() != releasedAtRead)) {
+                    return null; // the state read before is stale, read again
+                }
+                boolean liked = toggled != null ? toggled.liked() : inFlight != null ? inFlight.liked() : likedInDb;
+                boolean persisted = toggled != null ? toggled.persisted() : liked;
+                pendingLikes.merge(sudokuId, liked ? -1 : 1, FavouriteToggleBuffer::sumOrRemove);
+                toggledNow[0] = true;
+                return !liked == persisted ? null : new PendingToggle(!liked, persisted);
+            });
+            applied = toggledNow[0];
+        }
+        toggles.increment();
+
+        sudoku.setFavouriteCount(Math.max(0, Objects.requireNonNullElse(sudoku.getFavouriteCount(), 0) + pendingLikes(sudokuId)));
+        return Optional.of(sudoku);
+    }
+
+    // by how much the favouriteCount read from the db is behind the toggles of this instance; for a moment after a flush has written the counters it may be counted twice
+    public int pendingLikes(String sudokuId) {
+        return pendingLikes.getOrDefault(sudokuId, 0);
+    }
+
+    public boolean hasPendingLikes() {
+        return !pendingLikes.isEmpty();
+    }
+
+    // Writes every pending toggle. A flush waits for the one that is running, so when it returns everything toggled before the call is in the db (or back in the buffer, if the write failed).
+    public void flush() {
+        flush(key -> true);
+    }
+
+    // the toggles of one user, before their favourite sudokus are read
+    public void flushUser(String userId) {
+        if (pending.keySet().stream().anyMatch(key -> key.getUserId().equals(userId)) || flushing.keySet().stream().anyMatch(key -> key.getUserId().equals(userId))) {
+            flush(key -> key.getUserId().equals(userId));
+        }
+    }
+
+    // The user account is being removed: its toggles are dropped instead of written, a later flush would otherwise put back the edges and the counts removeFavouritesOfUser is about to take away. Waits for a running flush, the toggles it is writing are in the db when this returns and are removed with the rest.
+    public void discardUser(String userId) {
+        flushLock.lock();
+        try {
+            for (FavouriteKey key : pending.keySet()) {
+                if (key.getUserId().equals(userId)) {
+                    pending.computeIfPresent(key, (k, toggled) -> {
+                        pendingLikes.merge(k.getSudokuId(), toggled.liked() ? -1 : 1, FavouriteToggleBuffer::sumOrRemove);
+                        return null;
+                    });
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flush(Predicate<FavouriteKey> which) {
+        flushLock.lock();
+        try {
+            Map<FavouriteKey, PendingToggle> taken = new HashMap<>();
+            for (FavouriteKey key : pending.keySet()) {
+                if (which.test(key)) {
+                    pending.computeIfPresent(key, (k, toggled) -> { // moved atomically, a toggle of the pair sees it in one of the maps
+                        flushing.put(k, toggled);
+                        taken.put(k, toggled);
+                        return null;
+                    });
+                }
+            }
+            if (taken.isEmpty()) {
+                return;
+            }
+
+            Timer.Sample sample = Timer.start();
+            Map<FavouriteKey, Boolean> changes = new HashMap<>();
+            taken.forEach((key, toggled) -> changes.put(key, toggled.liked()));
+            try {
+                sudokuComplexQueriesRepository.applyFavourites(changes);
+            } catch (RuntimeException e) {
+                taken.forEach(this::restore);
+                sample.stop(flushFailed);
+                log.warn("Writing {} favourite toggles failed, they are kept for the next flush => {}", taken.size(), e.getLocalizedMessage());
+                return;
+            }
+            releasedFlushes.incrementAndGet();
+            taken.forEach((key, toggled) -> {
+                pendingLikes.merge(key.getSudokuId(), toggled.liked() ? -1 : 1, FavouriteToggleBuffer::sumOrRemove);
+                flushing.remove(key);
+            });
+            sample.stop(flushSucceeded);
+            writes.increment(taken.size());
+            anonymousResponseCache.invalidate(taken.keySet().stream().map(key -> AnonymousResponseCache.favouritesTag(key.getSudokuId())).distinct().toArray(String[]::new));
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // A toggle made while the failed flush was running started from the state that was being written, the state in the db is still the one before it.
+    private void restore(FavouriteKey key, PendingToggle failed) {
+        pending.compute(key, (k, toggled) -> {
+            if (toggled == null) {
+                return failed;
+            }
+            return toggled.liked() == failed.persisted() ? null : new PendingToggle(toggled.liked(), failed.persisted());
+        });
+        flushing.remove(key);
+    }
+
+    // The web server has stopped taking requests by the time beans are destroyed, the toggles still here are written before the MongoTemplate goes away. Toggles that come in afterwards are not buffered anymore.
+    @PreDestroy
+    public void drain() {
+        closed = true;
+        int attempts = 0;
+        while (!pending.isEmpty() && attempts++ < 3) {
+            flush();
+        }
+        if (!pending.isEmpty()) {
+            log.error("{} favourite toggles could not be written before the shutdown", pending.size());
+        }
+    }
+
+    private static Integer sumOrRemove(Integer a, Integer b) {
+        int sum = a + b;
+        return sum == 0 ? null : sum;
+    }
+
+    // liked - the state the pair should be in, persisted - the state in the db when the pair was first toggled (or the state the running flush is writing)
+    private record PendingToggle(boolean liked, boolean persisted) {
+    }
+}
@@ -0,0 +1,10 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+// Everything derived from the sudoku content that is worth storing next to it, computed once when the content is written
+public record SudokuAnalysis(boolean solvable, boolean unique, String solution, Integer difficulty, String canonicalHash) {
+    public static SudokuAnalysis of(SudokuBoard board) {
+        SudokuSolver.Result result = SudokuSolver.solve(board);
+        Integer difficulty = result.isSolvable() ? SudokuGrader.grade(board) : null;
+        return new SudokuAnalysis(result.isSolvable(), result.isUnique(), result.solutionContent(), difficulty, SudokuCanonicalizer.canonicalHash(board));
+    }
+}
@@ -0,0 +1,187 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Primitive representation of a 9x9 board. The content format stored in the db ("ddd.ddd.ddd;" repeated 9 times, 0 means an empty cell) is parsed straight from the char sequence into a byte[81] in row-major order.
+// Every row, column and box keeps a 9-bit mask of the digits it already holds (bit d-1 is set when digit d is present), so a duplicate is a single AND instead of a List.contains scan, and nothing gets boxed.
+public final class SudokuBoard {
+    public static final int SIZE = 9;
+    public static final int CELLS = 81;
+    public static final int ALL_DIGITS = 0x1FF; // bits 0..8 set, every digit 1..9 is present
+    public static final int CONTENT_LENGTH = 108; // 9 rows * "ddd.ddd.ddd;".length()
+
+    // lookup tables shared by every board, cheaper than recomputing the divisions for every cell
+    static final byte[] ROW_OF = new byte[CELLS];
+    static final byte[] COLUMN_OF = new byte[CELLS];
+    static final byte[] BOX_OF = new byte[CELLS];
+
+    static {
+        for (int cell = 0; cell < CELLS; cell++) {
+            ROW_OF[cell] = (byte) (cell / SIZE);
+            COLUMN_OF[cell] = (byte) (cell % SIZE);
+            BOX_OF[cell] = (byte) ((cell / 27) * 3 + (cell % SIZE) / 3);
+        }
+    }
+
+    private final byte[] cells = new byte[CELLS];
+    private final int[] rowMasks = new int[SIZE];
+    private final int[] columnMasks = new int[SIZE];
+    private final int[] boxMasks = new int[SIZE];
+    private int filledCount = 0;
+    private boolean consistent = true; // false as soon as any row, column or box holds the same digit twice
+
+    private SudokuBoard() {
+    }
+
+    // Checks the "ddd.ddd.ddd;" x9 format char by char, equivalent to ^([0-9]{3}\.[0-9]{3}\.[0-9]{3};){9}$ without compiling a Pattern
+    public static boolean isWellFormed(CharSequence content) {
+        if (content == null || content.length() != CONTENT_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < CONTENT_LENGTH; i++) {
+            char c = content.charAt(i);
+            int positionInRow = i % 12;
+            if (positionInRow == 3 || positionInRow == 7) {
+                if (c != '.') return false;
+            } else if (positionInRow == 11) {
+                if (c != ';') return false;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Throws IllegalArgumentException when the content is not well-formed. A well-formed board with duplicated digits is still returned, check isConsistent()
+    public static SudokuBoard parse(CharSequence content) {
+        if (!isWellFormed(content)) {
+            throw new IllegalArgumentException("invalid sudoku content");
+        }
+        SudokuBoard board = new SudokuBoard();
+        int cell = 0;
+        for (int i = 0; i < CONTENT_LENGTH; i++) {
+            char c = content.charAt(i);
+            if (c >= '0' && c <= '9') {
+                board.place(cell++, c - '0');
+            }
+        }
+        return board;
+    }
+
+    // Throws IllegalArgumentException when the board is not 9x9 or contains numbers outside 0..9
+    public static SudokuBoard fromRows(List<List<Integer>> rows) {
+        if (rows == null || rows.size() != SIZE) {
+            throw new IllegalArgumentException("invalid sudoku board");
+        }
+        SudokuBoard board = new SudokuBoard();
+        for (int row = 0; row < SIZE; row++) {
+            List<Integer> boardRow = rows.get(row);
+            if (boardRow == null || boardRow.size() != SIZE) {
+                throw new IllegalArgumentException("invalid sudoku board");
+            }
+            for (int column = 0; column < SIZE; column++) {
+                Integer digit = boardRow.get(column);
+                if (digit == null || digit < 0 || digit > 9) {
+                    throw new IllegalArgumentException("invalid sudoku board");
+                }
+                board.place(row * SIZE + column, digit);
+            }
+        }
+        return board;
+    }
+
+    public static SudokuBoard fromCells(byte[] cells) {
+        if (cells == null || cells.length != CELLS) {
+            throw new IllegalArgumentException("invalid sudoku board");
+        }
+        SudokuBoard board = new SudokuBoard();
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (cells[cell] < 0 || cells[cell] > 9) {
+                throw new IllegalArgumentException("invalid sudoku board");
+            }
+            board.place(cell, cells[cell]);
+        }
+        return board;
+    }
+
+    private void place(int cell, int digit) {
+        cells[cell] = (byte) digit;
+        if (digit == 0) {
+            return;
+        }
+        int bit = 1 << (digit - 1);
+        int row = ROW_OF[cell];
+        int column = COLUMN_OF[cell];
+        int box = BOX_OF[cell];
+        if (((rowMasks[row] | columnMasks[column] | boxMasks[box]) & bit) != 0) {
+            consistent = false;
+        }
+        rowMasks[row] |= bit;
+        columnMasks[column] |= bit;
+        boxMasks[box] |= bit;
+        filledCount++;
+    }
+
+    public int get(int cell) {
+        return cells[cell];
+    }
+
+    public int get(int row, int column) {
+        return cells[row * SIZE + column];
+    }
+
+    // digits that can still be placed in the cell, as a 9-bit mask; 0 for filled cells
+    public int candidates(int cell) {
+        if (cells[cell] != 0) {
+            return 0;
+        }
+        return ~(rowMasks[ROW_OF[cell]] | columnMasks[COLUMN_OF[cell]] | boxMasks[BOX_OF[cell]]) & ALL_DIGITS;
+    }
+
+    public boolean isConsistent() {
+        return consistent;
+    }
+
+    public boolean isSolved() {
+        return consistent && filledCount == CELLS;
+    }
+
+    public int getFilledCount() {
+        return filledCount;
+    }
+
+    public byte[] copyCells() {
+        return cells.clone();
+    }
+
+    public String toContent() {
+        return toContent(cells);
+    }
+
+    public static String toContent(byte[] cells) {
+        StringBuilder content = new StringBuilder(CONTENT_LENGTH);
+        for (int cell = 0; cell < CELLS; cell++) {
+            content.append((char) ('0' + cells[cell]));
+            int column = cell % SIZE;
+            if (column == 2 || column == 5) {
+                content.append('.');
+            } else if (column == 8) {
+                content.append(';');
+            }
+        }
+        return content.toString();
+    }
+
+    public List<List<Integer>> toRows() {
+        List<List<Integer>> rows = new ArrayList<>(SIZE);
+        for (int row = 0; row < SIZE; row++) {
+            List<Integer> boardRow = new ArrayList<>(SIZE);
+            for (int column = 0; column < SIZE; column++) {
+                boardRow.add((int) cells[row * SIZE + column]);
+            }
+            rows.add(boardRow);
+        }
+        return rows;
+    }
+}
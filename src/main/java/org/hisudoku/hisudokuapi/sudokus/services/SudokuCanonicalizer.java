@@ -0,0 +1,167 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+import org.hisudoku.hisudokuapi.general.utils.HashUtils;
+
+import java.util.Arrays;
+
+// Maps a board to the minimal representative of its symmetry class, so that puzzles which are the same up to
+//    - relabeling the digits,
+//    - permuting bands (groups of 3 rows) and the rows inside a band,
+//    - permuting stacks (groups of 3 columns) and the columns inside a stack,
+//    - transposing
+// end up with the same canonical form. Rotations and reflections are compositions of the moves above, so they are covered as well.
+// The representative is the lexicographically smallest 81-cell string after relabeling digits in order of first appearance (empty cells stay 0, so they sort first).
+// Columns are enumerated exhaustively (2 * 6^4 arrangements), rows are chosen by a branch and bound search that abandons a row order as soon as its prefix is greater than the best one found so far.
+public final class SudokuCanonicalizer {
+    private static final int[][] PERMUTATIONS_OF_3 = {
+            {0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}
+    };
+
+    private final byte[] grid = new byte[SudokuBoard.CELLS]; // board after transposition and column permutation
+    private final byte[] current = new byte[SudokuBoard.CELLS];
+    private final byte[] best = new byte[SudokuBoard.CELLS];
+    private final int[] comparison = new int[SudokuBoard.SIZE]; // -1/0/1: prefix up to the row slot compared with best
+    private final byte[] labels = new byte[10];
+    private final boolean[] usedRows = new boolean[SudokuBoard.SIZE];
+
+    private SudokuCanonicalizer() {
+        Arrays.fill(best, Byte.MAX_VALUE);
+    }
+
+    public static byte[] canonicalForm(SudokuBoard board) {
+        SudokuCanonicalizer canonicalizer = new SudokuCanonicalizer();
+        byte[] cells = board.copyCells();
+        byte[] transposed = new byte[SudokuBoard.CELLS];
+        for (int cell = 0; cell < SudokuBoard.CELLS; cell++) {
+            transposed[(cell % SudokuBoard.SIZE) * SudokuBoard.SIZE + cell / SudokuBoard.SIZE] = cells[cell];
+        }
+        int[] columnOrder = new int[SudokuBoard.SIZE];
+        for (byte[] source : new byte[][]{cells, transposed}) {
+            for (int[] stacks : PERMUTATIONS_OF_3) {
+                for (int[] first : PERMUTATIONS_OF_3) {
+                    for (int[] second : PERMUTATIONS_OF_3) {
+                        for (int[] third : PERMUTATIONS_OF_3) {
+                            int[][] inside = {first, second, third};
+                            for (int i = 0; i < SudokuBoard.SIZE; i++) {
+                                columnOrder[i] = stacks[i / 3] * 3 + inside[i / 3][i % 3];
+                            }
+                            if (!swapsIdenticalColumns(source, columnOrder)) {
+                                canonicalizer.searchRows(source, columnOrder);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return canonicalizer.best;
+    }
+
+    // hex encoded SHA-256 of the canonical form, stored as Sudoku.canonicalHash
+    public static String canonicalHash(SudokuBoard board) {
+        return HashUtils.sha256Hex(SudokuBoard.toContent(canonicalForm(board)));
+    }
+
+    // Swapping two identical columns of the same stack gives the same grid, only the order that keeps them in their original order is searched. Sparse boards have many identical (mostly empty) columns, without this the search would repeat itself thousands of times.
+    private static boolean swapsIdenticalColumns(byte[] source, int[] columnOrder) {
+        for (int i = 0; i < SudokuBoard.SIZE; i++) {
+            for (int j = i + 1; j < (i / 3) * 3 + 3; j++) {
+                if (columnOrder[i] > columnOrder[j] && identicalColumns(source, columnOrder[i], columnOrder[j])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean identicalColumns(byte[] source, int first, int second) {
+        for (int row = 0; row < SudokuBoard.SIZE; row++) {
+            if (source[row * SudokuBoard.SIZE + first] != source[row * SudokuBoard.SIZE + second]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean identicalRows(int first, int second) {
+        for (int column = 0; column < SudokuBoard.SIZE; column++) {
+            if (grid[first * SudokuBoard.SIZE + column] != grid[second * SudokuBoard.SIZE + column]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // an unused row of the same band with identical content and a lower index leads to exactly the same subtree
+    private boolean hasIdenticalPredecessor(int row) {
+        for (int other = (row / 3) * 3; other < row; other++) {
+            if (!usedRows[other] && identicalRows(other, row)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void searchRows(byte[] source, int[] columnOrder) {
+        for (int row = 0; row < SudokuBoard.SIZE; row++) {
+            for (int column = 0; column < SudokuBoard.SIZE; column++) {
+                grid[row * SudokuBoard.SIZE + column] = source[row * SudokuBoard.SIZE + columnOrder[column]];
+            }
+        }
+        Arrays.fill(labels, (byte) 0);
+        Arrays.fill(usedRows, false);
+        placeRow(0, 0, (byte) 1, -1);
+    }
+
+    // slot - position in the result, band - band of the rows picked for the current group of 3 slots
+    private void placeRow(int slot, int usedBands, byte nextLabel, int band) {
+        if (slot == SudokuBoard.SIZE) {
+            if (comparison[SudokuBoard.SIZE - 1] < 0) {
+                System.arraycopy(current, 0, best, 0, SudokuBoard.CELLS);
+                Arrays.fill(comparison, 0); // the current path is now the best one
+            }
+            return;
+        }
+        int fromRow;
+        int toRow;
+        if (slot % 3 == 0) {
+            fromRow = 0;
+            toRow = SudokuBoard.SIZE;
+        } else {
+            fromRow = band * 3;
+            toRow = band * 3 + 3;
+        }
+        for (int row = fromRow; row < toRow; row++) {
+            int rowBand = row / 3;
+            if (usedRows[row] || (slot % 3 == 0 && (usedBands & (1 << rowBand)) != 0) || hasIdenticalPredecessor(row)) {
+                continue;
+            }
+            byte label = nextLabel;
+            int state = slot == 0 ? 0 : comparison[slot - 1];
+            for (int column = 0; column < SudokuBoard.SIZE; column++) {
+                int digit = grid[row * SudokuBoard.SIZE + column];
+                if (digit != 0 && labels[digit] == 0) {
+                    labels[digit] = label++;
+                }
+                byte value = labels[digit];
+                current[slot * SudokuBoard.SIZE + column] = value;
+                if (state == 0) {
+                    byte bestValue = best[slot * SudokuBoard.SIZE + column];
+                    state = value < bestValue ? -1 : (value > bestValue ? 1 : 0);
+                }
+            }
+            if (state <= 0) {
+                comparison[slot] = state;
+                usedRows[row] = true;
+                placeRow(slot + 1, usedBands | (1 << rowBand), label, rowBand);
+                usedRows[row] = false;
+            }
+            // forget the labels introduced by this row
+            for (int column = 0; column < SudokuBoard.SIZE; column++) {
+                int digit = grid[row * SudokuBoard.SIZE + column];
+                if (digit != 0 && labels[digit] >= nextLabel) {
+                    labels[digit] = 0;
+                }
+            }
+        }
+    }
+}
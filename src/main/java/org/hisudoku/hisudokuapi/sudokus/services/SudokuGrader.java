@@ -0,0 +1,378 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+// Grades a sudoku the way a human would solve it: techniques are tried from the simplest one and after every successful step the grader starts over from the simplest one again, so the grade is the hardest technique that was unavoidable.
+//    1 - naked singles only
+//    2 - hidden singles
+//    3 - locked candidates (pointing and claiming)
+//    4 - naked pairs
+//    5 - hidden pairs
+//    6 - X-wing
+//    7..10 - none of the above is enough, the remaining position needs guessing; graded by the number of backtracking nodes it takes to finish, the search gives up after DEFAULT_BACKTRACKING_NODE_LIMIT nodes (it runs on the write path) and such a position is graded 10
+// The grade is a small discrete scale on purpose, a range filter on it can be rewritten to an $in over a handful of values, which lets Mongo walk the (difficulty, _id) index in _id order for every value and merge the results without a blocking sort.
+public final class SudokuGrader {
+    public static final int MIN_DIFFICULTY = 1;
+    public static final int MAX_DIFFICULTY = 10;
+    public static final int DEFAULT_BACKTRACKING_NODE_LIMIT = 10_000; // anything over 1000 nodes is graded 10 anyway
+
+    private static final int[][] UNITS = new int[27][9]; // 9 rows, 9 columns, 9 boxes
+    private static final int[][] PEERS = new int[SudokuBoard.CELLS][20];
+
+    static {
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++) {
+                UNITS[i][j] = i * 9 + j;
+                UNITS[9 + i][j] = j * 9 + i;
+                UNITS[18 + i][j] = ((i / 3) * 3 + j / 3) * 9 + (i % 3) * 3 + j % 3;
+            }
+        }
+        for (int cell = 0; cell < SudokuBoard.CELLS; cell++) {
+            int count = 0;
+            for (int other = 0; other < SudokuBoard.CELLS; other++) {
+                if (other != cell && (SudokuBoard.ROW_OF[other] == SudokuBoard.ROW_OF[cell]
+                        || SudokuBoard.COLUMN_OF[other] == SudokuBoard.COLUMN_OF[cell]
+                        || SudokuBoard.BOX_OF[other] == SudokuBoard.BOX_OF[cell])) {
+                    PEERS[cell][count++] = other;
+                }
+            }
+        }
+    }
+
+    private final byte[] cells;
+    private final int[] candidates = new int[SudokuBoard.CELLS];
+    private final int backtrackingNodeLimit;
+    private int emptyCount = 0;
+    private boolean contradiction = false;
+
+    private SudokuGrader(SudokuBoard board, int backtrackingNodeLimit) {
+        this.cells = board.copyCells();
+        this.backtrackingNodeLimit = backtrackingNodeLimit;
+        for (int cell = 0; cell < SudokuBoard.CELLS; cell++) {
+            candidates[cell] = board.candidates(cell);
+            if (cells[cell] == 0) {
+                emptyCount++;
+            }
+        }
+    }
+
+    // Returns null for boards that cannot be graded (inconsistent or unsolvable)
+    public static Integer grade(SudokuBoard board) {
+        return grade(board, DEFAULT_BACKTRACKING_NODE_LIMIT);
+    }
+
+    public static Integer grade(SudokuBoard board, int backtrackingNodeLimit) {
+        if (!board.isConsistent()) {
+            return null;
+        }
+        return new SudokuGrader(board, backtrackingNodeLimit).grade();
+    }
+
+    private Integer grade() {
+        int hardest = MIN_DIFFICULTY;
+
+        while (emptyCount > 0 && !contradiction) {
+            int technique;
+            if (nakedSingles()) {
+                technique = 1;
+            } else if (hiddenSingles()) {
+                technique = 2;
+            } else if (lockedCandidates()) {
+                technique = 3;
+            } else if (nakedPairs()) {
+                technique = 4;
+            } else if (hiddenPairs()) {
+                technique = 5;
+            } else if (xWings()) {
+                technique = 6;
+            } else {
+                break;
+            }
+            hardest = Math.max(hardest, technique);
+        }
+
+        if (contradiction) {
+            return null;
+        }
+        if (emptyCount == 0) {
+            return hardest;
+        }
+
+        long nodes = countBacktrackingNodes();
+        if (nodes < 0) {
+            return null;
+        }
+        if (nodes > backtrackingNodeLimit) {
+            return MAX_DIFFICULTY;
+        }
+        if (nodes <= 10) return 7;
+        if (nodes <= 100) return 8;
+        if (nodes <= 1000) return 9;
+        return MAX_DIFFICULTY;
+    }
+
+    private void place(int cell, int digit) {
+        int bit = 1 << (digit - 1);
+        cells[cell] = (byte) digit;
+        candidates[cell] = 0;
+        emptyCount--;
+        for (int peer : PEERS[cell]) {
+            if (cells[peer] == 0) {
+                candidates[peer] &= ~bit;
+                if (candidates[peer] == 0) {
+                    contradiction = true;
+                }
+            }
+        }
+    }
+
+    private boolean eliminate(int cell, int mask) {
+        if (cells[cell] != 0 || (candidates[cell] & mask) == 0) {
+            return false;
+        }
+        candidates[cell] &= ~mask;
+        if (candidates[cell] == 0) {
+            contradiction = true;
+        }
+        return true;
+    }
+
+    private boolean nakedSingles() {
+        boolean progress = false;
+        for (int cell = 0; cell < SudokuBoard.CELLS; cell++) {
+            if (cells[cell] == 0 && Integer.bitCount(candidates[cell]) == 1) {
+                place(cell, Integer.numberOfTrailingZeros(candidates[cell]) + 1);
+                progress = true;
+            }
+        }
+        return progress;
+    }
+
+    private boolean hiddenSingles() {
+        for (int[] unit : UNITS) {
+            for (int digit = 1; digit <= 9; digit++) {
+                int bit = 1 << (digit - 1);
+                int position = -1;
+                int count = 0;
+                for (int cell : unit) {
+                    if ((candidates[cell] & bit) != 0) {
+                        position = cell;
+                        count++;
+                    }
+                }
+                if (count == 1) {
+                    place(position, digit);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // a digit confined to one line inside a box can be removed from the rest of that line (pointing), a digit confined to one box inside a line can be removed from the rest of that box (claiming)
+    private boolean lockedCandidates() {
+        boolean progress = false;
+        for (int box = 18; box < 27; box++) {
+            for (int line = 0; line < 18; line++) {
+                int shared = 0;
+                int boxOnly = 0;
+                int lineOnly = 0;
+                for (int cell : UNITS[box]) {
+                    if (contains(UNITS[line], cell)) {
+                        shared |= candidates[cell];
+                    } else {
+                        boxOnly |= candidates[cell];
+                    }
+                }
+                if (shared == 0) {
+                    continue; // the line does not cross the box
+                }
+                for (int cell : UNITS[line]) {
+                    if (!contains(UNITS[box], cell)) {
+                        lineOnly |= candidates[cell];
+                    }
+                }
+                int pointing = shared & ~boxOnly;
+                int claiming = shared & ~lineOnly;
+                for (int cell : UNITS[line]) {
+                    if (pointing != 0 && !contains(UNITS[box], cell)) {
+                        progress |= eliminate(cell, pointing);
+                    }
+                }
+                for (int cell : UNITS[box]) {
+                    if (claiming != 0 && !contains(UNITS[line], cell)) {
+                        progress |= eliminate(cell, claiming);
+                    }
+                }
+                if (progress) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean nakedPairs() {
+        for (int[] unit : UNITS) {
+            for (int i = 0; i < 9; i++) {
+                int pair = candidates[unit[i]];
+                if (Integer.bitCount(pair) != 2) {
+                    continue;
+                }
+                for (int j = i + 1; j < 9; j++) {
+                    if (candidates[unit[j]] != pair) {
+                        continue;
+                    }
+                    boolean progress = false;
+                    for (int k = 0; k < 9; k++) {
+                        if (k != i && k != j) {
+                            progress |= eliminate(unit[k], pair);
+                        }
+                    }
+                    if (progress) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean hiddenPairs() {
+        for (int[] unit : UNITS) {
+            int[] positions = new int[9]; // bit i set when the digit is a candidate of unit[i]
+            for (int i = 0; i < 9; i++) {
+                int mask = candidates[unit[i]];
+                while (mask != 0) {
+                    int bit = mask & -mask;
+                    mask ^= bit;
+                    positions[Integer.numberOfTrailingZeros(bit)] |= 1 << i;
+                }
+            }
+            for (int a = 0; a < 9; a++) {
+                if (Integer.bitCount(positions[a]) != 2) {
+                    continue;
+                }
+                for (int b = a + 1; b < 9; b++) {
+                    if (positions[b] != positions[a]) {
+                        continue;
+                    }
+                    int keep = (1 << a) | (1 << b);
+                    boolean progress = false;
+                    for (int i = 0; i < 9; i++) {
+                        if ((positions[a] & (1 << i)) != 0) {
+                            progress |= eliminate(unit[i], ~keep & SudokuBoard.ALL_DIGITS);
+                        }
+                    }
+                    if (progress) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean xWings() {
+        for (int digit = 0; digit < 9; digit++) {
+            int bit = 1 << digit;
+            // rows as base sets (units 0..8) eliminate from columns, columns as base sets (units 9..17) eliminate from rows
+            for (int base = 0; base <= 9; base += 9) {
+                int cover = base == 0 ? 9 : 0;
+                int[] lines = new int[9];
+                for (int line = 0; line < 9; line++) {
+                    for (int i = 0; i < 9; i++) {
+                        if ((candidates[UNITS[base + line][i]] & bit) != 0) {
+                            lines[line] |= 1 << i;
+                        }
+                    }
+                }
+                for (int first = 0; first < 9; first++) {
+                    if (Integer.bitCount(lines[first]) != 2) {
+                        continue;
+                    }
+                    for (int second = first + 1; second < 9; second++) {
+                        if (lines[second] != lines[first]) {
+                            continue;
+                        }
+                        boolean progress = false;
+                        for (int i = 0; i < 9; i++) {
+                            if ((lines[first] & (1 << i)) == 0) {
+                                continue;
+                            }
+                            for (int j = 0; j < 9; j++) {
+                                if (j != first && j != second) {
+                                    progress |= eliminate(UNITS[cover + i][j], bit);
+                                }
+                            }
+                        }
+                        if (progress) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] unit, int cell) {
+        for (int member : unit) {
+            if (member == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // depth-first search over the remaining candidates (fewest candidates first), returns the number of visited nodes until the first solution, -1 when there is none, or more than the limit when the search gave up
+    private long countBacktrackingNodes() {
+        long[] nodes = new long[1];
+        if (backtrack(cells.clone(), candidates.clone(), nodes, backtrackingNodeLimit)) {
+            return nodes[0];
+        }
+        return nodes[0] > backtrackingNodeLimit ? nodes[0] : -1;
+    }
+
+    private static boolean backtrack(byte[] cells, int[] candidates, long[] nodes, int nodeLimit) {
+        if (++nodes[0] > nodeLimit) {
+            return false;
+        }
+        int bestCell = -1;
+        int bestCount = 10;
+        for (int cell = 0; cell < SudokuBoard.CELLS; cell++) {
+            if (cells[cell] != 0) {
+                continue;
+            }
+            int count = Integer.bitCount(candidates[cell]);
+            if (count == 0) {
+                return false;
+            }
+            if (count < bestCount) {
+                bestCell = cell;
+                bestCount = count;
+            }
+        }
+        if (bestCell == -1) {
+            return true;
+        }
+        int options = candidates[bestCell];
+        while (options != 0) {
+            int bit = options & -options;
+            options ^= bit;
+
+            byte[] nextCells = cells.clone();
+            int[] nextCandidates = candidates.clone();
+            nextCells[bestCell] = (byte) (Integer.numberOfTrailingZeros(bit) + 1);
+            nextCandidates[bestCell] = 0;
+            for (int peer : PEERS[bestCell]) {
+                nextCandidates[peer] &= ~bit;
+            }
+            if (backtrack(nextCells, nextCandidates, nodes, nodeLimit)) {
+                return true;
+            }
+            if (nodes[0] > nodeLimit) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,119 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+// Backtracking solver working on the same bitmask representation as SudokuBoard. Candidates of a cell are ~(row | column | box) masks, the search always branches on the empty cell with the fewest candidates (naked singles are therefore filled before any real guess is made) and stops as soon as the requested number of solutions is found.
+// Counting up to 2 solutions is enough to tell apart unsolvable (0), proper (1) and ambiguous (2+) puzzles without enumerating the whole search space.
+// The search runs on the request thread of every addSudoku/updateSudoku, so it is bounded by a node budget: a crafted board that would make it explore millions of dead ends gives up instead. A search that ran out of nodes is not complete - without a solution found the board counts as unsolvable, with one it is not proven unique.
+public final class SudokuSolver {
+    public static final int DEFAULT_NODE_LIMIT = 200_000; // proper puzzles, even the hardest known ones, need a few thousand nodes at most with MRV
+
+    private final byte[] cells;
+    private final int[] rowMasks = new int[SudokuBoard.SIZE];
+    private final int[] columnMasks = new int[SudokuBoard.SIZE];
+    private final int[] boxMasks = new int[SudokuBoard.SIZE];
+    private final int solutionLimit;
+    private final int nodeLimit;
+
+    private int solutionCount = 0;
+    private byte[] firstSolution;
+    private int nodes = 0;
+
+    private SudokuSolver(byte[] cells, int solutionLimit, int nodeLimit) {
+        this.cells = cells;
+        this.solutionLimit = solutionLimit;
+        this.nodeLimit = nodeLimit;
+        for (int cell = 0; cell < SudokuBoard.CELLS; cell++) {
+            if (cells[cell] != 0) {
+                toggle(cell, cells[cell]);
+            }
+        }
+    }
+
+    // complete - false when the node budget ran out before the search could tell how many solutions there are
+    public record Result(int solutionCount, byte[] solution, boolean complete) {
+        public boolean isSolvable() {
+            return solutionCount > 0;
+        }
+
+        public boolean isUnique() {
+            return solutionCount == 1 && complete;
+        }
+
+        public String solutionContent() {
+            return solution == null ? null : SudokuBoard.toContent(solution);
+        }
+    }
+
+    // Looks for at most two solutions. Inconsistent boards (duplicated digits) have no solution by definition
+    public static Result solve(SudokuBoard board) {
+        return solve(board, 2, DEFAULT_NODE_LIMIT);
+    }
+
+    public static Result solve(SudokuBoard board, int solutionLimit, int nodeLimit) {
+        if (!board.isConsistent()) {
+            return new Result(0, null, true);
+        }
+        SudokuSolver solver = new SudokuSolver(board.copyCells(), solutionLimit, nodeLimit);
+        solver.search();
+        return new Result(solver.solutionCount, solver.firstSolution, solver.nodes <= nodeLimit);
+    }
+
+    private void toggle(int cell, int digit) {
+        int bit = 1 << (digit - 1);
+        rowMasks[SudokuBoard.ROW_OF[cell]] ^= bit;
+        columnMasks[SudokuBoard.COLUMN_OF[cell]] ^= bit;
+        boxMasks[SudokuBoard.BOX_OF[cell]] ^= bit;
+    }
+
+    private void search() {
+        if (++nodes > nodeLimit) {
+            return;
+        }
+        int bestCell = -1;
+        int bestCandidates = 0;
+        int bestCount = 10;
+
+        for (int cell = 0; cell < SudokuBoard.CELLS; cell++) {
+            if (cells[cell] != 0) {
+                continue;
+            }
+            int candidates = ~(rowMasks[SudokuBoard.ROW_OF[cell]] | columnMasks[SudokuBoard.COLUMN_OF[cell]] | boxMasks[SudokuBoard.BOX_OF[cell]]) & SudokuBoard.ALL_DIGITS;
+            int count = Integer.bitCount(candidates);
+            if (count == 0) {
+                return; // dead end, some empty cell cannot take any digit
+            }
+            if (count < bestCount) {
+                bestCell = cell;
+                bestCandidates = candidates;
+                bestCount = count;
+                if (count == 1) {
+                    break;
+                }
+            }
+        }
+
+        if (bestCell == -1) {
+            // no empty cells left, the board is solved
+            if (solutionCount == 0) {
+                firstSolution = cells.clone();
+            }
+            solutionCount++;
+            return;
+        }
+
+        while (bestCandidates != 0) {
+            int bit = bestCandidates & -bestCandidates; // lowest set bit
+            bestCandidates ^= bit;
+            int digit = Integer.numberOfTrailingZeros(bit) + 1;
+
+            cells[bestCell] = (byte) digit;
+            toggle(bestCell, digit);
+            search();
+            toggle(bestCell, digit);
+            cells[bestCell] = 0;
+
+            if (solutionCount >= solutionLimit || nodes > nodeLimit) {
+                return;
+            }
+        }
+    }
+}
@@ -1,21 +1,59 @@
 package org.hisudoku.hisudokuapi.sudokus.services;
 
+import org.hisudoku.hisudokuapi.general.exceptions.InvalidSudokuException;
 import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
 import org.hisudoku.hisudokuapi.sudokus.models.SudokuModel;
 
 import org.springframework.stereotype.Service;
+import graphql.schema.DataFetchingFieldSelectionSet;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.MatchResult;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 @Service
 public class SudokuUtils {
+    // GraphQL fields of SudokuModel -> Sudoku properties they are resolved from. id is always read (cursors and the nested loaders need it), author is resolved by its batch loader from authorId and favouritedBy from the id alone.
+    private static final Map<String, String> SUDOKU_MODEL_PROPERTIES = new LinkedHashMap<>();
+
+    static {
+        SUDOKU_MODEL_PROPERTIES.put("createdAt", "createdAt");
+        SUDOKU_MODEL_PROPERTIES.put("updatedAt", "updatedAt");
+        SUDOKU_MODEL_PROPERTIES.put("author", "authorId");
+        SUDOKU_MODEL_PROPERTIES.put("content", "content");
+        SUDOKU_MODEL_PROPERTIES.put("favouriteCount", "favouriteCount");
+        SUDOKU_MODEL_PROPERTIES.put("solvable", "solvable");
+        SUDOKU_MODEL_PROPERTIES.put("unique", "unique");
+        SUDOKU_MODEL_PROPERTIES.put("difficulty", "difficulty");
+    }
+
+    // every property mapToSudokuModelFavouritedByNullAuthorNullDTO reads - the solution and the canonical hash are never part of it
+    public static Set<String> sudokuModelProperties() {
+        Set<String> properties = new LinkedHashSet<>();
+        properties.add("id");
+        properties.addAll(SUDOKU_MODEL_PROPERTIES.values());
+        return properties;
+    }
+
+    // Properties needed for the SudokuModel fields selected in the query. path is the location of the SudokuModel inside the selection set, e.g. "sudokus/" for feeds and "" when the field itself returns a SudokuModel. Fields that are not selected stay null in the model, which is fine because graphql-java never reads them.
+    public static Set<String> sudokuModelProperties(DataFetchingFieldSelectionSet selectionSet, String path) {
+        if (selectionSet == null) {
+            return sudokuModelProperties();
+        }
+        Set<String> properties = new LinkedHashSet<>();
+        properties.add("id");
+        SUDOKU_MODEL_PROPERTIES.forEach((field, property) -> {
+            if (selectionSet.contains(path + field)) {
+                properties.add(property);
+            }
+        });
+        return properties;
+    }
+
     public static List<SudokuModel> mapToSudokuModelFavouritedByNullAuthorNullDTOs(List<Sudoku> sudoku) {
         return sudoku.stream()
                 .map(SudokuUtils::mapToSudokuModelFavouritedByNullAuthorNullDTO)
@@ -27,9 +65,13 @@ public class SudokuUtils {
                 sudoku.getId(),
                 sudoku.getCreatedAt(),
                 sudoku.getUpdatedAt(),
+                sudoku.getAuthorId(),
                 null,
                 sudoku.getContent(),
                 sudoku.getFavouriteCount(),
+                sudoku.getSolvable(),
+                sudoku.getUnique(),
+                sudoku.getDifficulty(),
                 null
         );
     }
@@ -55,84 +97,36 @@ public class SudokuUtils {
 //        Arrays.sort(numbers);
 
         // The compare(x, y) returns -1 if x is less than y, 0 if they’re equal, and 1 otherwise.
-        String fragment = sudokuValues.stream().sorted((x, y) -> x - y).map(Object::toString).collect(Collectors.joining(""));
-        String passingFragment = "123456789";
-        return fragment.equals(passingFragment);
+        // a fragment (row, column or box) is solved when it holds each of the digits 1..9 exactly once, so nine values whose bits cover the full mask
+        if (sudokuValues.size() != SudokuBoard.SIZE) {
+            return false;
+        }
+        int mask = 0;
+        for (Integer value : sudokuValues) {
+            if (value == null || value < 1 || value > 9) {
+                return false;
+            }
+            mask |= 1 << (value - 1);
+        }
+        return mask == SudokuBoard.ALL_DIGITS;
     }
 
     public static boolean validateIfBoardIsValid(List<List<Integer>> board) {
         // Arrays.asList returns a mutable list while the list returned by List.of is structurally immutable
         // Arrays.asList allows null elements while List.of doesn't
-        List<List<Integer>> rows = Arrays.asList(
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10)
-        );
-        List<List<Integer>> columns = Arrays.asList(
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10)
-        );
-        List<List<Integer>> boxes = Arrays.asList(
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10),
-                new ArrayList<>(10)
-        );
 
         // AtomicBoolean are used for flags, locks, or signaling
         // The main difference between Boolean and AtomicBoolean is that Boolean is immutable and cannot be changed once created, whereas AtomicBoolean is mutable and can be modified using atomic operations.
         // AtomicBoolean breakInnerLoopWithFalse = new AtomicBoolean(false);
 
-        int[] rowIndexes = IntStream.range(0, board.size()).toArray();
-
-        for (int rowIndex : rowIndexes) {
-            List<Integer> boardRow = board.get(rowIndex);
+        // Math.floor() returns a double that is "equal to a mathematical integer". If the argument is NaN or an infinity or positive zero or negative zero, then the result is the same as the argument. Can't do that with an int. The largest double value is also larger than the largest int. The double data-type has a 53 bit mantissa. Among other things that means that a double can represent all whole up to 2^53 without precision loss. If you store such a large number in an integer you will get an overflow. Integers only have 32 bits.
 
-            int[] colIndexes = IntStream.range(0, boardRow.size()).toArray();
-
-            for (int colIndex : colIndexes) {
-                Integer num = boardRow.get(colIndex);
-
-                if (num != 0) {
-                    if (rows.get(rowIndex).contains(num)) {
-                        return false;
-                    } else rows.get(rowIndex).add(num);
-
-                    if (columns.get(colIndex).contains(num)) {
-                        return false;
-                    } else columns.get(colIndex).add(num);
-
-                    // Math.floor() returns a double that is "equal to a mathematical integer". If the argument is NaN or an infinity or positive zero or negative zero, then the result is the same as the argument. Can't do that with an int. The largest double value is also larger than the largest int. The double data-type has a 53 bit mantissa. Among other things that means that a double can represent all whole up to 2^53 without precision loss. If you store such a large number in an integer you will get an overflow. Integers only have 32 bits.
-                    int boxIndex = (int) Math.floor(rowIndex / 3.0) * 3 + (int) Math.floor(colIndex / 3.0);
-
-                    if (boxes.get(boxIndex).contains(num)) {
-                        return false;
-                    } else boxes.get(boxIndex).add(num);
-                }
-            }
+        // Check each row, column and 3x3 box for duplicates. The board engine keeps a 9-bit mask per row, column and box, so every cell costs one AND instead of three List.contains scans
+        try {
+            return SudokuBoard.fromRows(board).isConsistent();
+        } catch (IllegalArgumentException e) {
+            return false;
         }
-        return true;
     }
 
     public static List<List<Integer>> stringToBoard(String sudokuString) throws Exception {
@@ -142,40 +136,27 @@ public class SudokuUtils {
         // s.split("[\\D]")
         // s.split(" ")
         // s.split("[,\\.\\s]")     split a string by spaces, and also punctuation
-        String[] rows = sudokuString.split(";");
-
-        List<List<Integer>> board = new ArrayList<>(10);
-
-        for (String row : rows) {
-            // alphabets followed by digits: "[A-Za-z]+\\d+" // The double backslash is used to escape the backslash character because it’s a special character in Java.
-            // case-insensitive alphabets: "[a-zA-Z]+"
-            // email address: "^[A-Za-z0-9._%+-]+@[A-Za-z0-9.-]+\\.[A-Za-z]{2,}$"
-            // one or more digits: "\\d+"
-            // "cat|dog|fish"
 
-            boolean matches = row.matches("\\d+");
-            if (!matches) {
-                throw new Exception("invalid sudoku board");
-            }
-            // Creating Stream of Regex Matches for data extraction
-            // We aim to extract all the numbers from a string using a regular expression and then create a stream of these matches.
-            String regex = "[0-9]"; // "[0-9]" extracts every single digit from presented string, "\\d+" extracts every number as a whole
-            Pattern pattern = Pattern.compile(regex);
-            Matcher matcher = pattern.matcher(row);
-
-            // The matcher.results() method returns a stream of MatchResult objects. Each object corresponds to a distinct match found in the input string based on the regex pattern. Then, we can use the group() method of this object to get the matched String.
-            List<String> extractedNumbersAsStrings = matcher.results().map(MatchResult::group).toList();
-            // "1234,5;2tr67" will produce [1,2,3,4,5,6,7]
-
-            List<Integer> extractedNumbersAsIntegers = extractedNumbersAsStrings.stream().map(Integer::parseInt).toList();
-            board.add(extractedNumbersAsIntegers);
+        // alphabets followed by digits: "[A-Za-z]+\\d+" // The double backslash is used to escape the backslash character because it’s a special character in Java.
+        // case-insensitive alphabets: "[a-zA-Z]+"
+        // email address: "^[A-Za-z0-9._%+-]+@[A-Za-z0-9.-]+\\.[A-Za-z]{2,}$"
+        // one or more digits: "\\d+"
+        // "cat|dog|fish"
+
+        // Creating Stream of Regex Matches for data extraction
+        // We aim to extract all the numbers from a string using a regular expression and then create a stream of these matches.
+        // "[0-9]" extracts every single digit from presented string, "\\d+" extracts every number as a whole
+        // The matcher.results() method returns a stream of MatchResult objects. Each object corresponds to a distinct match found in the input string based on the regex pattern. Then, we can use the group() method of this object to get the matched String.
+        try {
+            return SudokuBoard.parse(sudokuString).toRows();
+        } catch (IllegalArgumentException e) {
+            throw new Exception("invalid sudoku board");
         }
-        return board;
     }
 
     public static boolean validateIfStringRepresentsValidSudokuString(String string) {
         //String string = "111.111.111;222.222.222;333.333.333;444.444.444;555.555.555;666.666.666;777.777.777;888.888.888;999.999.999;";
-        return string.matches("^([0-9]{3}\\.[0-9]{3}\\.[0-9]{3};){9}$");
+        return SudokuBoard.isWellFormed(string);
     }
 
     public static boolean validateIfFragmentIsValid(List<String> array, String emptyCharacter) {
@@ -190,8 +171,21 @@ public class SudokuUtils {
             Check each 3x3 sub grid for duplicates.
             Return false if any duplicates are found, and true if no duplicates are found.
         */
-        //reorganize data
-        List<List<Integer>> board = stringToBoard(sudokuString);
-        return validateIfBoardIsValid(board);
+        if (!SudokuBoard.isWellFormed(sudokuString)) {
+            throw new Exception("invalid sudoku board");
+        }
+        return SudokuBoard.parse(sudokuString).isConsistent();
+    }
+
+    // parses the content of an incoming sudoku, rejecting malformed strings and boards with duplicated digits
+    public static SudokuBoard parseValidBoard(String sudokuString) {
+        if (!SudokuBoard.isWellFormed(sudokuString)) {
+            throw new InvalidSudokuException(sudokuString);
+        }
+        SudokuBoard board = SudokuBoard.parse(sudokuString);
+        if (!board.isConsistent()) {
+            throw new InvalidSudokuException(sudokuString);
+        }
+        return board;
     }
 }
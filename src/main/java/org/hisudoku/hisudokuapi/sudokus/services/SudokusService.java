@@ -6,8 +6,10 @@ import org.hisudoku.hisudokuapi.general.exceptions.OperationFailedException;
 import org.hisudoku.hisudokuapi.general.exceptions.OperationNotAllowedException;
 import org.hisudoku.hisudokuapi.general.exceptions.SudokuNotFoundException;
 import org.hisudoku.hisudokuapi.general.exceptions.UserNotFoundException;
+import org.hisudoku.hisudokuapi.general.graphql.AnonymousResponseCache;
 import org.hisudoku.hisudokuapi.sudokus.dtos.*;
 import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
+import org.hisudoku.hisudokuapi.sudokus.models.FavouritedByKey;
 import org.hisudoku.hisudokuapi.sudokus.models.SudokuFeedModel;
 import org.hisudoku.hisudokuapi.sudokus.models.SudokuModel;
 import org.hisudoku.hisudokuapi.sudokus.repositories.SudokuComplexQueriesRepository;
@@ -21,6 +23,7 @@ import org.hisudoku.hisudokuapi.users.services.HSUserUtils;
 
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -28,42 +31,55 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class SudokusService {
     private final SudokuComplexQueriesRepository sudokuComplexQueriesRepository;
+    private final AnonymousResponseCache anonymousResponseCache;
+    private final FavouriteToggleBuffer favouriteToggleBuffer;
 
-    public SudokuFeedModel findManyByAuthor(String authorId, Integer limit, String sudokuCursor){
+    public SudokuFeedModel findManyByAuthor(String authorId, Integer limit, String sudokuCursor, Collection<String> properties){
         if(sudokuCursor == null){
-            return this.sudokuComplexQueriesRepository.findManyByAuthor(authorId, limit);
+            return withPendingLikes(this.sudokuComplexQueriesRepository.findManyByAuthor(authorId, limit, properties));
         } else {
-            return this.sudokuComplexQueriesRepository.findManyByAuthor(authorId, limit, sudokuCursor);
+            return withPendingLikes(this.sudokuComplexQueriesRepository.findManyByAuthor(authorId, limit, sudokuCursor, properties));
         }
     }
 
+    public SudokuFeedModel findManyFavouritedByUser(String userId, Integer limit, String sudokuCursor, Collection<String> properties){
+        favouriteToggleBuffer.flushUser(userId); // the list is cut from the edges, a sudoku just liked has to be there
+        return withPendingLikes(this.sudokuComplexQueriesRepository.findManyFavouritedByUser(userId, limit, sudokuCursor, properties));
+    }
+
     public SudokuModel addSudoku(HSUserPrincipal principal, AddSudokuInput addSudokuInput){
-        Sudoku sudoku = this.sudokuComplexQueriesRepository.addOne(addSudokuInput.getContent(), principal.getId());
+        SudokuAnalysis analysis = SudokuAnalysis.of(SudokuUtils.parseValidBoard(addSudokuInput.getContent()));
+
+        Sudoku sudoku = this.sudokuComplexQueriesRepository.addOne(addSudokuInput.getContent(), principal.getId(), analysis);
+        anonymousResponseCache.invalidate(AnonymousResponseCache.FEED_TAG);
 
         return SudokuUtils.mapToSudokuModelFavouritedByNullAuthorNullDTO(sudoku);
     }
 
-    public SudokuFeedModel sudokuFeed(Integer sudokusLimit, String sudokuCursor){
+    public SudokuFeedModel sudokuFeed(Integer sudokusLimit, String sudokuCursor, Integer minDifficulty, Integer maxDifficulty, Collection<String> properties){
         if(sudokuCursor == null){
-            return this.sudokuComplexQueriesRepository.findMany(sudokusLimit);
+            return withPendingLikes(this.sudokuComplexQueriesRepository.findMany(sudokusLimit, minDifficulty, maxDifficulty, properties));
         } else  {
-            return this.sudokuComplexQueriesRepository.findMany(sudokusLimit, sudokuCursor);
+            return withPendingLikes(this.sudokuComplexQueriesRepository.findMany(sudokusLimit, sudokuCursor, minDifficulty, maxDifficulty, properties));
         }
     }
 
-    public SudokuModel findOne(String sudokuId){
-        Sudoku sudoku = this.sudokuComplexQueriesRepository.findOneById(sudokuId)
+    public SudokuModel findOne(String sudokuId, Collection<String> properties){
+        Sudoku sudoku = this.sudokuComplexQueriesRepository.findOneById(sudokuId, properties)
                 .orElseThrow(()-> new SudokuNotFoundException(sudokuId));
 
         // repository.findById(id).map(Utils::mapToDTO).orElseThrow(() -> new NotFoundException(id));
-        return SudokuUtils.mapToSudokuModelFavouritedByNullAuthorNullDTO(sudoku);
+        return withPendingLikes(SudokuUtils.mapToSudokuModelFavouritedByNullAuthorNullDTO(sudoku));
     }
 
     public SudokuModel updateSudokuContent(HSUserPrincipal principal, UpdateSudokuInput updateSudokuInput){
+        SudokuBoard board = SudokuUtils.parseValidBoard(updateSudokuInput.getSudokuContent());
         this.verifySudokuAuthor(principal.getId(), principal.getRole(), updateSudokuInput.getSudokuId());
+        SudokuAnalysis analysis = SudokuAnalysis.of(board);
 
-        Sudoku sudoku = this.sudokuComplexQueriesRepository.updateOneContent(updateSudokuInput.getSudokuId(), updateSudokuInput.getSudokuContent())
+        Sudoku sudoku = this.sudokuComplexQueriesRepository.updateOneContent(updateSudokuInput.getSudokuId(), updateSudokuInput.getSudokuContent(), analysis)
                 .orElseThrow(()-> new OperationFailedException("sudoku: " + updateSudokuInput.getSudokuId()));
+        anonymousResponseCache.invalidate(AnonymousResponseCache.sudokuTag(sudoku.getId()), AnonymousResponseCache.FEED_TAG); // the difficulty may have changed, filtered feeds too
 
         return SudokuUtils.mapToSudokuModelFavouritedByNullAuthorNullDTO(sudoku);
     }
@@ -73,12 +89,14 @@ public class SudokusService {
 
         Sudoku sudoku = this.sudokuComplexQueriesRepository.removeOneById(removeSudokuInput.getSudokuId())
                 .orElseThrow(()-> new OperationFailedException("remove one sudoku"));
+        anonymousResponseCache.invalidate(AnonymousResponseCache.sudokuTag(sudoku.getId()), AnonymousResponseCache.FEED_TAG);
 
         return new MessageResponseModel("removed sudoku with id: " + sudoku.getId());
     }
 
     public SudokuModel toggleFavorite(HSUserPrincipal principal, ToggleFavouriteSudokuInput toggleFavouriteSudokuInput){
-        Sudoku sudoku = this.sudokuComplexQueriesRepository.toggleLike(toggleFavouriteSudokuInput.getSudokuId(), principal.getId())
+        // the cached responses listing who liked the sudoku are evicted once the toggle is written (see FavouriteToggleBuffer), favouriteCount is left to the time to live of the cached responses
+        Sudoku sudoku = this.favouriteToggleBuffer.toggle(toggleFavouriteSudokuInput.getSudokuId(), principal.getId())
                 .orElseThrow(()-> new OperationFailedException("toggle favourite sudoku"));
 
         return SudokuUtils.mapToSudokuModelFavouritedByNullAuthorNullDTO(sudoku);
@@ -103,6 +121,38 @@ public class SudokusService {
         }
     }
 
+    public Map<FavouritedByKey, UserFeedModel> findUsersWhoLikeSudokus(Collection<FavouritedByKey> keys) {
+        return this.sudokuComplexQueriesRepository.findUsersWhoLikeSudokus(keys);
+    }
+
+    // favouriteCount as it will be once the pending toggles are written (see FavouriteToggleBuffer)
+    private SudokuFeedModel withPendingLikes(SudokuFeedModel feed) {
+        if (!favouriteToggleBuffer.hasPendingLikes()) {
+            return feed;
+        }
+        return new SudokuFeedModel(feed.getSudokus().stream().map(this::withPendingLikes).toList(), feed.getHasNextPage(), feed.getCursor());
+    }
+
+    private SudokuModel withPendingLikes(SudokuModel sudoku) {
+        int pendingLikes = favouriteToggleBuffer.pendingLikes(sudoku.getId());
+        if (pendingLikes == 0 || sudoku.getFavouriteCount() == null) { // not selected, or nothing pending
+            return sudoku;
+        }
+        return new SudokuModel(
+                sudoku.getId(),
+                sudoku.getCreatedAt(),
+                sudoku.getUpdatedAt(),
+                sudoku.getAuthorId(),
+                sudoku.getAuthor(),
+                sudoku.getContent(),
+                Math.max(0, sudoku.getFavouriteCount() + pendingLikes),
+                sudoku.getSolvable(),
+                sudoku.getUnique(),
+                sudoku.getDifficulty(),
+                sudoku.getFavouritedBy()
+        );
+    }
+
     public void verifySudokuAuthor(String userId, Role userRole, String sudokuId) {
         HSUser author = this.sudokuComplexQueriesRepository.findSudokuAuthor(sudokuId)
                 .orElseThrow(()-> new UserNotFoundException(UserNotFoundException.ByProperty.ID, sudokuId));
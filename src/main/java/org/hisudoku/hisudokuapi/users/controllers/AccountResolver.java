@@ -8,6 +8,7 @@ import java.util.Locale;
 import lombok.RequiredArgsConstructor;
 
 import org.hisudoku.hisudokuapi.sudokus.models.SudokuFeedModel;
+import org.hisudoku.hisudokuapi.sudokus.services.SudokuUtils;
 import org.hisudoku.hisudokuapi.sudokus.services.SudokusService;
 import org.hisudoku.hisudokuapi.users.dtos.*;
 import org.hisudoku.hisudokuapi.users.models.AccountModel;
@@ -74,7 +75,7 @@ public class AccountResolver {
         return this.userActionsService.findOneById(principal.getId());
     }
 
-    @PreAuthorize("hasAuthority('user:update') or hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
+    @PreAuthorize("(hasAuthority('user:update') or hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')) and @principalVerifier.isCurrent(principal)")
     @SchemaMapping(typeName = "Mutation", field = "updateMyUsername")
     public AccountModel updateUsername(
             @Argument @Valid UpdateMyUsernameInput updateMyUsernameInput,
@@ -87,7 +88,7 @@ public class AccountResolver {
         return this.userActionsService.updateOneUsername(principal, updateMyUsernameInput);
     }
 
-    @PreAuthorize("hasAuthority('user:update') or hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
+    @PreAuthorize("(hasAuthority('user:update') or hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')) and @principalVerifier.isCurrent(principal)")
     @SchemaMapping(typeName = "Mutation", field = "updateMyEmail")
     public MessageResponseModel updateEmail(
             @Argument @Valid UpdateMyEmailInput updateMyEmailInput,
@@ -101,7 +102,7 @@ public class AccountResolver {
         return this.userActionsService.requestUpdateEmail(principal, updateMyEmailInput, locale.getLanguage());
     }
 
-    @PreAuthorize("isAuthenticated()")
+    @PreAuthorize("isAuthenticated() and @principalVerifier.isCurrent(principal)")
     @SchemaMapping(typeName = "Mutation", field = "updateMyPassword")
     public AccountModel updatePassword(
             @Argument @Valid UpdateMyPasswordInput updateMyPasswordInput,
@@ -114,7 +115,7 @@ public class AccountResolver {
         return this.userActionsService.updatePassword(principal, updateMyPasswordInput.getNewPassword());
     }
 
-    @PreAuthorize("isAuthenticated()")
+    @PreAuthorize("isAuthenticated() and @principalVerifier.isCurrent(principal)")
     @SchemaMapping(typeName = "Mutation", field = "removeMyAccount")
     public MessageResponseModel removeAccount(
             DataFetchingEnvironment env,
@@ -138,6 +139,17 @@ public class AccountResolver {
             // Principal principal,
             // Authentication authentication,
     ) {
-        return this.sudokusService.findManyByAuthor(parent.getId(), sudokusLimit, sudokuCursor);
+        return this.sudokusService.findManyByAuthor(parent.getId(), sudokusLimit, sudokuCursor, SudokuUtils.sudokuModelProperties(env.getSelectionSet(), "sudokus/"));
+    }
+
+    @SchemaMapping(typeName = "AccountModel", field = "favouriteSudokus")
+    public SudokuFeedModel favouriteSudokus(
+            DataFetchingEnvironment env,
+            GraphQLContext graphQLContext,
+            AccountModel parent,
+            @Argument("sudokuCursor") @Size(min = 24, message = "{validation.mongo-id.size.too-short}") @Size(max = 24, message = "{validation.mongo-id.size.too-long}") String sudokuCursor,
+            @Argument("sudokusLimit") @Max(value = 50, message = "{validation.sudokus-limit}") @NotNull int sudokusLimit
+    ) {
+        return this.sudokusService.findManyFavouritedByUser(parent.getId(), sudokusLimit, sudokuCursor, SudokuUtils.sudokuModelProperties(env.getSelectionSet(), "sudokus/"));
     }
 }
@@ -9,6 +9,7 @@ import org.hisudoku.hisudokuapi.users.models.MessageResponseModel;
 import org.hisudoku.hisudokuapi.users.models.UserFeedModel;
 import org.hisudoku.hisudokuapi.users.models.UserModel;
 import org.hisudoku.hisudokuapi.users.services.AdminActionsService;
+import org.hisudoku.hisudokuapi.users.services.HSUserUtils;
 import org.hisudoku.hisudokuapi.users.services.PublicActionsService;
 
 import org.springframework.graphql.data.method.annotation.Argument;
@@ -37,7 +38,8 @@ public class UsersResolver {
 //        DataFetchingFieldSelectionSet s = env.getSelectionSet();
 //        if (s.contains("name"))
 
-        return this.publicActionsService.findOneById(userId);
+        // only the fields selected in the query are read from the db
+        return this.publicActionsService.findOneById(userId, HSUserUtils.userModelProperties(env.getSelectionSet(), ""));
     }
 
     @PreAuthorize("hasAuthority('user:read') or hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
@@ -48,10 +50,22 @@ public class UsersResolver {
             DataFetchingEnvironment env,
             GraphQLContext graphQLContext
     ) {
-        return this.publicActionsService.userFeed(usersLimit, userCursor);
+        return this.publicActionsService.userFeed(usersLimit, userCursor, HSUserUtils.userModelProperties(env.getSelectionSet(), "users/"));
     }
 
-    @PreAuthorize("hasRole('ROLE_ADMIN') or hasAuthority('admin:update')")
+    @PreAuthorize("(hasRole('ROLE_ADMIN') or hasAuthority('admin:read')) and @principalVerifier.isCurrent(principal)")
+    @SchemaMapping(typeName = "Query", field = "usersByRole")
+    public UserFeedModel usersByRole(
+            @Argument @NotBlank String role,
+            @Argument String userCursor, // nullable: true
+            @NotNull @Argument Integer usersLimit,
+            DataFetchingEnvironment env,
+            GraphQLContext graphQLContext
+    ) {
+        return this.adminActionsService.usersByRole(role, usersLimit, userCursor, HSUserUtils.userModelProperties(env.getSelectionSet(), "users/"));
+    }
+
+    @PreAuthorize("(hasRole('ROLE_ADMIN') or hasAuthority('admin:update')) and @principalVerifier.isCurrent(principal)")
     @SchemaMapping(typeName = "Mutation", field = "updateOneUsername")
     public UserModel updateOneUsername(
             @Argument UpdateOneUsernameInput updateOneUsernameInput,
@@ -65,7 +79,7 @@ public class UsersResolver {
         return this.adminActionsService.updateOneUsername(updateOneUsernameInput);
     }
 
-    @PreAuthorize("hasRole('ROLE_ADMIN') or hasAuthority('admin:update')")
+    @PreAuthorize("(hasRole('ROLE_ADMIN') or hasAuthority('admin:update')) and @principalVerifier.isCurrent(principal)")
     @SchemaMapping(typeName = "Mutation", field = "removeOneUser")
     public MessageResponseModel removeOne(
             @Argument RemoveOneInput removeOneInput,
@@ -75,7 +89,7 @@ public class UsersResolver {
         return this.adminActionsService.removeOne(removeOneInput);
     }
 
-    @PreAuthorize("hasRole('ROLE_ADMIN') or hasAuthority('admin:update')")
+    @PreAuthorize("(hasRole('ROLE_ADMIN') or hasAuthority('admin:update')) and @principalVerifier.isCurrent(principal)")
     @SchemaMapping(typeName = "Mutation", field = "grantAdminPermissions")
     public UserModel grantAdminPermissions(
             @Argument GrantAdminPermissionsInput grantAdminPermissionsInput,
@@ -10,7 +10,7 @@ import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 import java.time.ZonedDateTime;
 
 //@ToString(exclude = {"password", "id"})
@@ -31,7 +31,8 @@ public class EmailActivationToken {
 
     private String principalId;
 
-    private LocalDateTime expiration; // while dateTime could have been a String variable, the best practice is to use date/time-specific JDK classes for date fields. Using String fields to represent dates requires extra effort to ensure the values are formatted correctly.
+    // an Instant and not a LocalDateTime, a TTL index (see MongoIndexConfiguration) compares the stored date with the server clock and LocalDateTime is stored shifted by the zone offset of the JVM
+    private Instant expiration; // while dateTime could have been a String variable, the best practice is to use date/time-specific JDK classes for date fields. Using String fields to represent dates requires extra effort to ensure the values are formatted correctly.
 
     @Field(name = "account_usage_info")
     private ZonedDateTime createdAt;
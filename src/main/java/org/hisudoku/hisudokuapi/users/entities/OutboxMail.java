@@ -0,0 +1,50 @@
+package org.hisudoku.hisudokuapi.users.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import org.hisudoku.hisudokuapi.users.enums.OutboxMailStatus;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.MongoId;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.time.LocalDateTime;
+
+// A rendered mail waiting to be delivered. Request threads only insert these (MailService), the SMTP conversation happens in MailOutboxWorker, so a slow or unavailable mail server neither delays the api nor loses the mail.
+// { status: 1, next_attempt_at: 1 } serves the claim query, sent mails are removed by a TTL index on sent_at (see MongoIndexConfiguration).
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "mail_outbox")
+public class OutboxMail {
+    @MongoId(FieldType.OBJECT_ID)
+    private String id;
+
+    private String to;
+
+    private String subject;
+
+    @Field(name = "html_body")
+    private String htmlBody;
+
+    private OutboxMailStatus status;
+
+    private int attempts;
+
+    @Field(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    @Field(name = "last_error")
+    private String lastError;
+
+    @Field(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Field(name = "sent_at")
+    private LocalDateTime sentAt;
+}
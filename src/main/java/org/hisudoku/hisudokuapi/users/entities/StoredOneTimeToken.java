@@ -0,0 +1,29 @@
+package org.hisudoku.hisudokuapi.users.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.Instant;
+
+// A magic link token issued by MongoOneTimeTokenService. The id is the SHA-256 of the token value, so the tokens that would log somebody in are never stored - consuming one is a findAndRemove by _id.
+// Expired tokens are removed by a TTL index on expires_at (see MongoIndexConfiguration), the TTL monitor runs once a minute so consume still checks the expiration itself.
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "one_time_token")
+public class StoredOneTimeToken {
+    @Id
+    private String id;
+
+    private String username;
+
+    @Field(name = "expires_at")
+    private Instant expiresAt;
+}
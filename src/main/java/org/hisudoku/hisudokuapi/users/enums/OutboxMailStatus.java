@@ -0,0 +1,8 @@
+package org.hisudoku.hisudokuapi.users.enums;
+
+public enum OutboxMailStatus {
+    PENDING, // waiting for its next attempt (next_attempt_at)
+    SENDING, // claimed by a worker, next_attempt_at is the end of the lease after which another worker may take it over
+    SENT,
+    FAILED // gave up after application.mail.outbox.max-attempts attempts
+}
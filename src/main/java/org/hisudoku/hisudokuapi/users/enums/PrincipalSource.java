@@ -0,0 +1,7 @@
+package org.hisudoku.hisudokuapi.users.enums;
+
+// Where JWTAuthenticationFilter takes the principal of an authenticated request from (application.security.jwt.principal-source)
+public enum PrincipalSource {
+    DATABASE, // the user is read by the token subject (through PrincipalCache), changes of the role or name are visible on the next request
+    CLAIMS // the principal is built from the verified token claims alone, a change of the role is visible once the token expires, sensitive mutations re-check the database (PrincipalVerifier)
+}
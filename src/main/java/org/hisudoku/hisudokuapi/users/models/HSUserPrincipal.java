@@ -42,6 +42,17 @@ public class HSUserPrincipal implements UserDetails {
         this.email = email;
     }
 
+    // built from the claims of a verified access token (PrincipalSource.CLAIMS), the token carries no password, email or account dates
+    public HSUserPrincipal(String id, String name, Role role) {
+        this.id = id;
+        this.name = name;
+        this.password = null;
+        this.role = role;
+        this.enrollmentDate = null;
+        this.updatedAt = null;
+        this.email = null;
+    }
+
     @Builder
     public HSUserPrincipal(HSUser user) {
         this.name = user.getName();
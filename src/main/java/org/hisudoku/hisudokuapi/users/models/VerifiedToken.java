@@ -0,0 +1,9 @@
+package org.hisudoku.hisudokuapi.users.models;
+
+import java.time.Instant;
+import java.util.List;
+
+// The result of parsing an access token once: the signature has been checked and the token has not expired. Everything the request needs afterwards is read from here, so the token is never parsed and HMAC-verified again.
+// name and role are null for tokens issued before they were added to the claims.
+public record VerifiedToken(String subject, String name, String role, Instant expiration, List<String> authorities) {
+}
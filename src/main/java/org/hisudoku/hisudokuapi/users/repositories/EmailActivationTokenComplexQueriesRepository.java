@@ -10,9 +10,11 @@ import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Repository;
 import com.mongodb.client.result.DeleteResult;
 
-import java.time.LocalDateTime;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -27,7 +29,7 @@ public class EmailActivationTokenComplexQueriesRepository {
         // can also UUID.randomUUID().toString().replace("-", ""); if app do not uses dashes
 
         ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
-        LocalDateTime expiration = LocalDateTime.now(ZoneOffset.UTC).plusMinutes(30);
+        Instant expiration = Instant.now().plus(Duration.ofMinutes(30));
 
         EmailActivationToken emailActivationToken = new EmailActivationToken();
         emailActivationToken.setToken(token);
@@ -61,6 +63,7 @@ public class EmailActivationTokenComplexQueriesRepository {
         // Criteria.where("status").ne(null)
 
         query.addCriteria(Criteria.where("token").is(token));
+        query.addCriteria(Criteria.where("expiration").gt(Instant.now())); // the TTL monitor runs once a minute, an expired token can still be there
         return Optional.ofNullable(mongoTemplate.findOne(query, EmailActivationToken.class));
     }
 
@@ -80,8 +83,8 @@ public class EmailActivationTokenComplexQueriesRepository {
         return Optional.ofNullable(mongoTemplate.findAndRemove(query, EmailActivationToken.class));
     }
 
-    // remove all whose expiration date is below certain threshold
-    public long removeExpired() {
+    // Removes at most batchSize expired tokens, the fallback of the TTL index for ExpiredTokensSweeper. The ids are read first and deleted by _id, so a single call never turns into an unbounded deleteMany.
+    public long removeExpired(int batchSize) {
         //For removing documents before Date, your command should be:
         //db.collection.deleteMany( { orderExpDate : {"$lt" : new Date(YEAR, MONTH, DATE) } })
 
@@ -116,9 +119,17 @@ public class EmailActivationTokenComplexQueriesRepository {
          //Query query = Query.query(Criteria.where("CREATE_DATETIME").lte(dateFormat.format(prevDate)));
 
         Query query = new Query();
-        query.addCriteria(Criteria.where("expiration").lte(LocalDateTime.now(ZoneOffset.UTC)));
-
-        DeleteResult result = mongoTemplate.remove(query, EmailActivationToken.class);
+        query.addCriteria(Criteria.where("expiration").lte(Instant.now()));
+        query.limit(batchSize);
+        query.fields().include("_id");
+
+        List<String> ids = mongoTemplate.find(query, EmailActivationToken.class).stream()
+                .map(EmailActivationToken::getId)
+                .toList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        DeleteResult result = mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), EmailActivationToken.class);
 
         return result.getDeletedCount();
     }
@@ -18,6 +18,7 @@ import org.springframework.stereotype.Repository;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -29,9 +30,18 @@ public class HSUserComplexQueriesRepository {
     public Optional<HSUser> findOneById(String userId) {
         return Optional.ofNullable(mongoTemplate.findById(userId, HSUser.class));
     }
+    public Optional<HSUser> findOneById(String userId, Collection<String> properties) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("_id").is(userId));
+        query.fields().include(properties.toArray(String[]::new));
+        return Optional.ofNullable(mongoTemplate.findOne(query, HSUser.class));
+    }
+
+    // used to resolve public UserModels (sudoku authors), so the credentials and the settings are never read
     public List<HSUser> findManyByIds(List<String> ids) {
         Query query = new Query();
         query.addCriteria(Criteria.where("_id").in(ids)); //  _id: { $in: ids } }
+        query.fields().include(HSUserUtils.userModelProperties().toArray(String[]::new));
         return mongoTemplate.find(query, HSUser.class);
     }
 
@@ -227,17 +237,22 @@ public class HSUserComplexQueriesRepository {
         return Optional.ofNullable(result);
     }
 
-    public List<HSUser> findManyByRole(String role, Integer offset, Integer perPage) {
+    // Keyset pagination over the { role: 1, _id: 1 } index: the cursor is the id of the first user of the next page and is inclusive, callers get limit + 1 users to find out whether there is a next page.
+    // skip(offset) made the server walk and discard every user before the page, so pages got slower the deeper an admin went; a page here is a bounded index range scan wherever it starts.
+    public UserFeedModel findManyByRole(String role, int limit, String cursor, Collection<String> properties) {
         Query query = new Query();
         query.addCriteria(Criteria.where("role").is(role));
-        query.skip(offset);
-        query.limit(perPage);
+        if (cursor != null) {
+            query.addCriteria(Criteria.where("_id").gte(cursor));
+        }
+        query.limit(limit + 1);
         query.with(Sort.by(Sort.Direction.ASC, "_id"));
+        query.fields().include(properties.toArray(String[]::new));
 
         // final Pageable pageableRequest = PageRequest.of(page, perPage);
         // query.with(pageableRequest);
 
-        return mongoTemplate.find(query, HSUser.class);
+        return findMany(query, limit);
     }
 
     public List<HSUser> findManyByEnrollmentDateBetween(LocalDateTime earlierDate, LocalDateTime laterDate) {
@@ -252,20 +267,22 @@ public class HSUserComplexQueriesRepository {
         return mongoTemplate.find(query, HSUser.class);
     }
 
-    public UserFeedModel findMany(int limit, String cursor) {
+    public UserFeedModel findMany(int limit, String cursor, Collection<String> properties) {
         Query query = new Query();
 
         query.addCriteria(Criteria.where("_id").lt(cursor));
         query.limit(limit + 1);
         query.with(Sort.by(Sort.Direction.ASC, "_id"));
+        query.fields().include(properties.toArray(String[]::new));
 
         return findMany(query, limit);
     }
 
-    public UserFeedModel findMany(int limit) {
+    public UserFeedModel findMany(int limit, Collection<String> properties) {
         Query query = new Query();
         query.limit(limit + 1);
         query.with(Sort.by(Sort.Direction.ASC, "_id"));
+        query.fields().include(properties.toArray(String[]::new));
 
         return findMany(query, limit);
     }
@@ -0,0 +1,45 @@
+package org.hisudoku.hisudokuapi.users.repositories;
+
+import lombok.RequiredArgsConstructor;
+
+import org.hisudoku.hisudokuapi.users.entities.StoredOneTimeToken;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+@RequiredArgsConstructor
+public class OneTimeTokenComplexQueriesRepository {
+    private final MongoTemplate mongoTemplate;
+
+    public StoredOneTimeToken addOne(String tokenDigest, String username, Instant expiresAt) {
+        return mongoTemplate.insert(new StoredOneTimeToken(tokenDigest, username, expiresAt));
+    }
+
+    // atomic, of two requests consuming the same token (on the same or on different instances of the api) only one gets it
+    public Optional<StoredOneTimeToken> removeOne(String tokenDigest) {
+        return Optional.ofNullable(mongoTemplate.findAndRemove(new Query(Criteria.where("_id").is(tokenDigest)), StoredOneTimeToken.class));
+    }
+
+    // at most batchSize expired tokens, see EmailActivationTokenComplexQueriesRepository.removeExpired
+    public long removeExpired(int batchSize) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("expiresAt").lte(Instant.now()));
+        query.limit(batchSize);
+        query.fields().include("_id");
+
+        List<String> ids = mongoTemplate.find(query, StoredOneTimeToken.class).stream()
+                .map(StoredOneTimeToken::getId)
+                .toList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), StoredOneTimeToken.class).getDeletedCount();
+    }
+}
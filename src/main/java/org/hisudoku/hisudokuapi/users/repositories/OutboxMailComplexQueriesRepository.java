@@ -0,0 +1,93 @@
+package org.hisudoku.hisudokuapi.users.repositories;
+
+import lombok.RequiredArgsConstructor;
+
+import org.hisudoku.hisudokuapi.users.entities.OutboxMail;
+import org.hisudoku.hisudokuapi.users.enums.OutboxMailStatus;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+@RequiredArgsConstructor
+public class OutboxMailComplexQueriesRepository {
+    private final MongoTemplate mongoTemplate;
+
+    public OutboxMail addOne(String to, String subject, String htmlBody) {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+
+        OutboxMail mail = new OutboxMail();
+        mail.setTo(to);
+        mail.setSubject(subject);
+        mail.setHtmlBody(htmlBody);
+        mail.setStatus(OutboxMailStatus.PENDING);
+        mail.setAttempts(0);
+        mail.setNextAttemptAt(now);
+        mail.setCreatedAt(now);
+
+        return mongoTemplate.insert(mail);
+    }
+
+    // Claims up to batchSize mails that are due, oldest first. Each claim is a single findAndModify, so two workers (threads or instances of the api) never get the same mail.
+    // A claimed mail is SENDING with next_attempt_at moved to the end of the lease - if the worker dies before reporting the result, the mail becomes due again once the lease is over.
+    public List<OutboxMail> claimDue(int batchSize, Duration lease) {
+        List<OutboxMail> claimed = new ArrayList<>(batchSize);
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+
+        Query query = new Query();
+        query.addCriteria(Criteria.where("status").in(OutboxMailStatus.PENDING, OutboxMailStatus.SENDING).and("nextAttemptAt").lte(now));
+        query.with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"));
+
+        Update update = new Update()
+                .set("status", OutboxMailStatus.SENDING)
+                .set("nextAttemptAt", now.plus(lease))
+                .inc("attempts", 1);
+        FindAndModifyOptions options = FindAndModifyOptions.options().upsert(false).returnNew(true);
+
+        while (claimed.size() < batchSize) {
+            OutboxMail mail = mongoTemplate.findAndModify(query, update, options, OutboxMail.class);
+            if (mail == null) {
+                break;
+            }
+            claimed.add(mail);
+        }
+        return claimed;
+    }
+
+    public void markSent(String id) {
+        Query query = new Query(Criteria.where("_id").is(id));
+        Update update = new Update()
+                .set("status", OutboxMailStatus.SENT)
+                .set("sentAt", LocalDateTime.now(ZoneOffset.UTC))
+                .unset("lastError");
+        mongoTemplate.updateFirst(query, update, OutboxMail.class);
+    }
+
+    // nextAttemptAt null means there will be no next attempt
+    public void markFailed(String id, String error, LocalDateTime nextAttemptAt) {
+        Query query = new Query(Criteria.where("_id").is(id));
+        Update update = new Update().set("lastError", error);
+        if (nextAttemptAt == null) {
+            update.set("status", OutboxMailStatus.FAILED);
+        } else {
+            update.set("status", OutboxMailStatus.PENDING).set("nextAttemptAt", nextAttemptAt);
+        }
+        mongoTemplate.updateFirst(query, update, OutboxMail.class);
+    }
+
+    public Optional<OutboxMail> findOneById(String id) {
+        return Optional.ofNullable(mongoTemplate.findById(id, OutboxMail.class));
+    }
+}
@@ -5,33 +5,49 @@ import lombok.RequiredArgsConstructor;
 import org.hisudoku.hisudokuapi.general.exceptions.NameTakenException;
 import org.hisudoku.hisudokuapi.general.exceptions.OperationFailedException;
 import org.hisudoku.hisudokuapi.general.exceptions.UserNotFoundException;
+import org.hisudoku.hisudokuapi.general.graphql.AnonymousResponseCache;
+import org.hisudoku.hisudokuapi.sudokus.repositories.SudokuComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.sudokus.services.FavouriteToggleBuffer;
 import org.hisudoku.hisudokuapi.users.dtos.GrantAdminPermissionsInput;
 import org.hisudoku.hisudokuapi.users.dtos.RemoveOneInput;
 import org.hisudoku.hisudokuapi.users.dtos.UpdateOneUsernameInput;
 import org.hisudoku.hisudokuapi.users.entities.HSUser;
 import org.hisudoku.hisudokuapi.users.enums.Role;
 import org.hisudoku.hisudokuapi.users.models.MessageResponseModel;
+import org.hisudoku.hisudokuapi.users.models.UserFeedModel;
 import org.hisudoku.hisudokuapi.users.models.UserModel;
 import org.hisudoku.hisudokuapi.users.repositories.HSUserComplexQueriesRepository;
 
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+
 @Service
 @RequiredArgsConstructor
 public class AdminActionsService {
     private final HSUserComplexQueriesRepository hsUserComplexQueriesRepository;
+    private final SudokuComplexQueriesRepository sudokuComplexQueriesRepository;
+    private final FavouriteToggleBuffer favouriteToggleBuffer;
+    private final PrincipalCache principalCache;
+    private final AnonymousResponseCache anonymousResponseCache;
 
     public UserModel grantOneAdminPermissions(GrantAdminPermissionsInput grantAdminPermissionsInput) {
         String idOfTheUserToWhomAdministratorPrivilegesShouldBeGranted = grantAdminPermissionsInput.getUserId();
-        return hsUserComplexQueriesRepository.findOneByIdUpdateRole(idOfTheUserToWhomAdministratorPrivilegesShouldBeGranted, Role.ADMIN.name())
-                .map(HSUserUtils::mapToUserModelDTO)
+        HSUser user = hsUserComplexQueriesRepository.findOneByIdUpdateRole(idOfTheUserToWhomAdministratorPrivilegesShouldBeGranted, Role.ADMIN.name())
                 .orElseThrow(() -> new UserNotFoundException(UserNotFoundException.ByProperty.ID, idOfTheUserToWhomAdministratorPrivilegesShouldBeGranted));
+        principalCache.invalidate(user.getId());
+        return HSUserUtils.mapToUserModelDTO(user);
+    }
+
+    public UserFeedModel usersByRole(String role, Integer usersLimit, String userCursor, Collection<String> properties) {
+        return hsUserComplexQueriesRepository.findManyByRole(role, usersLimit, userCursor, properties);
     }
 
     public UserModel banOne(String idOfUserToBeBanned) {
-        return hsUserComplexQueriesRepository.findOneByIdUpdateRole(idOfUserToBeBanned, Role.BANNED.name())
-                .map(HSUserUtils::mapToUserModelDTO)
+        HSUser user = hsUserComplexQueriesRepository.findOneByIdUpdateRole(idOfUserToBeBanned, Role.BANNED.name())
                 .orElseThrow(() -> new UserNotFoundException(UserNotFoundException.ByProperty.ID, idOfUserToBeBanned));
+        principalCache.invalidate(user.getId()); // a banned user must lose its authorities on the next request, not when the entry expires
+        return HSUserUtils.mapToUserModelDTO(user);
     }
 
     public UserModel updateOneUsername(UpdateOneUsernameInput updateOneUsernameInput) {
@@ -42,15 +58,20 @@ public class AdminActionsService {
             throw new NameTakenException(newUsername);
         }
 
-        return this.hsUserComplexQueriesRepository.updateOneUsername(userId, newUsername)
-                .map(HSUserUtils::mapToUserModelDTO)
+        HSUser user = this.hsUserComplexQueriesRepository.updateOneUsername(userId, newUsername)
                 .orElseThrow(()->new OperationFailedException("update username"));
+        principalCache.invalidate(userId);
+        return HSUserUtils.mapToUserModelDTO(user);
     }
 
     public MessageResponseModel removeOne(RemoveOneInput removeOneInput) {
         String id = removeOneInput.getUserId();
         HSUser user = this.hsUserComplexQueriesRepository.removeOneById(id)
                 .orElseThrow(() -> new OperationFailedException("remove one"));
+        this.favouriteToggleBuffer.discardUser(user.getId());
+        this.sudokuComplexQueriesRepository.removeFavouritesOfUser(user.getId());
+        principalCache.invalidate(user.getId());
+        anonymousResponseCache.invalidateAll(); // their likes are gone from every favouritedBy list
         return new MessageResponseModel("removed user with id: " + user.getId());
     }
 }
@@ -0,0 +1,54 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.hisudoku.hisudokuapi.users.repositories.EmailActivationTokenComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.users.repositories.OneTimeTokenComplexQueriesRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+// Fallback for the TTL indexes on email_activation_token.expiration and one_time_token.expires_at: the TTL monitor can fall behind on a busy primary, and it does not run before MongoIndexConfiguration created the indexes on a fresh database.
+// Every sweep deletes at most batchSize expired documents per collection (SchedulingConfiguration runs it every interval), so the rate is bounded no matter how much has piled up.
+// Metrics: mongo.expired.tokens.swept{collection} counts the documents the sweeper had to delete - it staying at 0 means the TTL monitor keeps up - and mongo.expired.tokens.sweep times the sweeps.
+@Service
+public class ExpiredTokensSweeper {
+    private final EmailActivationTokenComplexQueriesRepository emailActivationTokenComplexQueriesRepository;
+    private final OneTimeTokenComplexQueriesRepository oneTimeTokenComplexQueriesRepository;
+    private final int batchSize;
+    private final Counter emailActivationTokensSwept;
+    private final Counter oneTimeTokensSwept;
+    private final Timer sweepTimer;
+
+    public ExpiredTokensSweeper(
+            @Value("${application.mongo.expired-tokens-sweep.batch-size}") int batchSize,
+            EmailActivationTokenComplexQueriesRepository emailActivationTokenComplexQueriesRepository,
+            OneTimeTokenComplexQueriesRepository oneTimeTokenComplexQueriesRepository,
+            MeterRegistry meterRegistry
+    ) {
+        this.emailActivationTokenComplexQueriesRepository = emailActivationTokenComplexQueriesRepository;
+        this.oneTimeTokenComplexQueriesRepository = oneTimeTokenComplexQueriesRepository;
+        this.batchSize = batchSize;
+        this.emailActivationTokensSwept = Counter.builder("mongo.expired.tokens.swept")
+                .tag("collection", "email_activation_token")
+                .register(meterRegistry);
+        this.oneTimeTokensSwept = Counter.builder("mongo.expired.tokens.swept")
+                .tag("collection", "one_time_token")
+                .register(meterRegistry);
+        this.sweepTimer = Timer.builder("mongo.expired.tokens.sweep")
+                .register(meterRegistry);
+    }
+
+    // returns the number of deleted documents
+    public long sweep() {
+        Timer.Sample sample = Timer.start();
+        long emailActivationTokens = emailActivationTokenComplexQueriesRepository.removeExpired(batchSize);
+        emailActivationTokensSwept.increment(emailActivationTokens);
+        long oneTimeTokens = oneTimeTokenComplexQueriesRepository.removeExpired(batchSize);
+        oneTimeTokensSwept.increment(oneTimeTokens);
+        sample.stop(sweepTimer);
+        return emailActivationTokens + oneTimeTokens;
+    }
+}
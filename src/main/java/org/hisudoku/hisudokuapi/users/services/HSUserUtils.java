@@ -1,27 +1,68 @@
 package org.hisudoku.hisudokuapi.users.services;
 
+import org.hisudoku.hisudokuapi.users.entities.AccountUsageInfo;
 import org.hisudoku.hisudokuapi.users.entities.HSUser;
 import org.hisudoku.hisudokuapi.users.models.AccountModel;
 import org.hisudoku.hisudokuapi.users.models.UserModel;
 
 import org.springframework.stereotype.Service;
+import graphql.schema.DataFetchingFieldSelectionSet;
 
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class HSUserUtils {
+    // GraphQL fields of UserModel -> HSUser properties they are resolved from, id is always read. Nothing here ever reaches password, email or user_settings.
+    private static final Map<String, String> USER_MODEL_PROPERTIES = new LinkedHashMap<>();
+
+    static {
+        USER_MODEL_PROPERTIES.put("enrollmentDate", "accountUsageInfo");
+        USER_MODEL_PROPERTIES.put("updatedAt", "accountUsageInfo");
+        USER_MODEL_PROPERTIES.put("name", "name");
+        USER_MODEL_PROPERTIES.put("role", "role");
+    }
+
+    // every property mapToUserModelDTO reads
+    public static Set<String> userModelProperties() {
+        Set<String> properties = new LinkedHashSet<>();
+        properties.add("id");
+        properties.addAll(USER_MODEL_PROPERTIES.values());
+        return properties;
+    }
+
+    // properties needed for the UserModel fields selected in the query, path as in SudokuUtils.sudokuModelProperties
+    public static Set<String> userModelProperties(DataFetchingFieldSelectionSet selectionSet, String path) {
+        if (selectionSet == null) {
+            return userModelProperties();
+        }
+        Set<String> properties = new LinkedHashSet<>();
+        properties.add("id");
+        USER_MODEL_PROPERTIES.forEach((field, property) -> {
+            if (selectionSet.contains(path + field)) {
+                properties.add(property);
+            }
+        });
+        return properties;
+    }
+
     public static List<UserModel> mapToUserModelDTOs(List<HSUser> users) {
         return users.stream()
                 .map(HSUserUtils::mapToUserModelDTO)
                 .collect(Collectors.toList());
     }
 
+    // accountUsageInfo is missing when the user was read with a projection that did not need it
     public static UserModel mapToUserModelDTO(HSUser user) {
+        AccountUsageInfo accountUsageInfo = user.getAccountUsageInfo();
         return new UserModel(
                 user.getId(),
-                user.getAccountUsageInfo().getEnrollmentDate(),
-                user.getAccountUsageInfo().getUpdatedAt(),
+                accountUsageInfo == null ? null : accountUsageInfo.getEnrollmentDate(),
+                accountUsageInfo == null ? null : accountUsageInfo.getUpdatedAt(),
                 user.getName(),
                 user.getRole()
         );
@@ -4,7 +4,10 @@ import lombok.extern.slf4j.Slf4j;
 
 import org.hisudoku.hisudokuapi.general.exceptions.UserNotFoundException;
 import org.hisudoku.hisudokuapi.users.entities.HSUser;
+import org.hisudoku.hisudokuapi.users.enums.PrincipalSource;
+import org.hisudoku.hisudokuapi.users.enums.Role;
 import org.hisudoku.hisudokuapi.users.models.HSUserPrincipal;
+import org.hisudoku.hisudokuapi.users.models.VerifiedToken;
 import org.hisudoku.hisudokuapi.users.repositories.HSUserComplexQueriesRepository;
 
 import org.springframework.beans.factory.annotation.Value;
@@ -12,7 +15,6 @@ import org.springframework.stereotype.Service;
 
 import java.security.Key;
 import java.util.*;
-import java.util.function.Function;
 import javax.crypto.SecretKey;
 
 import io.jsonwebtoken.*;
@@ -24,17 +26,31 @@ import io.jsonwebtoken.security.SignatureException;
 @Slf4j
 public class JWTService {
     private final String secretKey;
+    private final SecretKey signInKey;
+    private final JwtParser jwtParser;
     private final long jwtExpiration;
     private final HSUserComplexQueriesRepository hsUserComplexQueriesRepository;
+    private final PrincipalCache principalCache;
+    private final PrincipalSource principalSource;
+    private final VerifiedTokenCache verifiedTokenCache;
 
     public JWTService(
             @Value("${application.security.jwt.secret-key}") String secretKey,
             @Value("${application.security.jwt.access-token-expiration}") long jwtExpiration,
-            HSUserComplexQueriesRepository hsUserComplexQueriesRepository
+            @Value("${application.security.jwt.principal-source:database}") PrincipalSource principalSource,
+            HSUserComplexQueriesRepository hsUserComplexQueriesRepository,
+            PrincipalCache principalCache,
+            VerifiedTokenCache verifiedTokenCache
     ) {
         this.hsUserComplexQueriesRepository = hsUserComplexQueriesRepository;
+        this.principalCache = principalCache;
+        this.principalSource = principalSource;
+        this.verifiedTokenCache = verifiedTokenCache;
         this.secretKey = secretKey; // SecretKey key = Jwts.SIG.HS256.key().build();
         this.jwtExpiration = jwtExpiration;
+        // decoding the secret and building the parser are done once, both the key and the parser are immutable and thread-safe
+        this.signInKey = (SecretKey) getSignInKey();
+        this.jwtParser = Jwts.parser().verifyWith(signInKey).build();
     }
 
     private Key getSignInKey() {
@@ -75,19 +91,59 @@ public class JWTService {
         return Keys.hmacShaKeyFor(keyBytes); // Computes a Hash-based Message Authentication Code (HMAC) by using the SHA256 hash function. Here hmacShaKeyFor() method determines the Algorithm to be used based on the bit length of Secretkey.
     }
 
-    private Claims extractAllClaims(String token) {
-        // the first versions of the library recommended to use Jwts.parser() method that returned new JwtParser instance, in the next versions it was deprecated and the use of method parseBuilder was recommended, in version 0.12 the naming was changed again and the name of method parser() was returned
-        return Jwts.parser()
-                .verifyWith((SecretKey) getSignInKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+    // Parses and verifies the token exactly once, the parser rejects tokens with a wrong signature as well as expired ones (ExpiredJwtException), so a present result is a token the request can be authenticated with. A token seen before is served from VerifiedTokenCache until its exp.
+    public Optional<VerifiedToken> verify(String token) {
+        return verifiedTokenCache.get(token, this::parseAndVerify);
+    }
+
+    private Optional<VerifiedToken> parseAndVerify(String token) {
+        // When you use a JWT, you must check its signature before storing and using it.
+        // You can enforce that the JWT you are parsing conforms to expectations that you require and are important for your application. For example, let's say that you require that the JWT you are parsing has a specific sub (subject) value, otherwise you may not trust the token. You can do that by using one of the various require* methods
+        try {
+            // the first versions of the library recommended to use Jwts.parser() method that returned new JwtParser instance, in the next versions it was deprecated and the use of method parseBuilder was recommended, in version 0.12 the naming was changed again and the name of method parser() was returned
+            //Type-safe JWTs: If you are certain your parser will only ever encounter a specific kind of JWT (for example, you only ever use signed JWTs with Claims payloads, or encrypted JWTs with byte[] content payloads, etc), you can call the associated type-safe parseSignedClaims, parseEncryptedClaims, (etc) method variant instead of the generic parse method. These parse* methods will return the type-safe JWT you are expecting, for example, a Jws<Claims> or Jwe<byte[]> instead of a generic Jwt<?,?> instance.
+            Claims claims = jwtParser.parseSignedClaims(token).getPayload();
+            //If parsing a JWS and the JWS was signed with a SecretKey, the same SecretKey should be specified on the JwtParserBuilder. For example:
+            //Jwts.parser()
+            //  .verifyWith(secretKey) // <----
+            //  .build()
+            //  .parseSignedClaims(jwsString);
+            //If parsing a JWS and the JWS was signed with a PrivateKey, that key’s corresponding PublicKey (not the PrivateKey) should be specified on the JwtParserBuilder. For example:
+            //Jwts.parser()
+            //  .verifyWith(publicKey) // <---- publicKey, not privateKey
+            //  .build()
+            //  .parseSignedClaims(jwsString);
+            // What if JWSs and JWEs can be created with different SecretKeys or public/private keys, or a combination of both? How do you know which key to specify if you don’t inspect the JWT first? In these cases, you’ll need to configure a parsing Key Locator
+            if (claims.getExpiration() == null) {
+                log.error("JWT has no expiration");
+                return Optional.empty();
+            }
+            List<String> authorities = claims.get("authorities") == null ? List.of() : ((List<?>) claims.get("authorities")).stream().map(String::valueOf).toList();
+            return Optional.of(new VerifiedToken(
+                    claims.getSubject(),
+                    claims.get("userName", String.class),
+                    claims.get("userRole", String.class),
+                    claims.getExpiration().toInstant(),
+                    authorities
+            ));
+        } catch (ExpiredJwtException ex) {
+            log.debug("JWT expired: {}", ex.getMessage());
+        } catch (IllegalArgumentException ex) {
+            log.error("Token is null, empty or only whitespace: {}", ex.getMessage());
+        } catch (MalformedJwtException ex) {
+            log.error("JWT is invalid: {}", ex.getMessage());
+        } catch (UnsupportedJwtException ex) {
+            log.error("JWT is not supported: {}", ex.getMessage());
+        } catch (SignatureException ex) {
+            log.error("Signature validation failed");
+        } catch (JwtException ex) {
+            log.error("Don't trust this JWT");
+        }
+        return Optional.empty();
     }
 
     public String extractMail(String token) {
-        Claims claims = Jwts.parser()
-                .verifyWith((SecretKey) getSignInKey())
-                .build()
+        Claims claims = jwtParser
                 .parseSignedClaims(token)
                 .getPayload();
 
@@ -124,30 +180,17 @@ public class JWTService {
         return claims.get("mail", String.class);
     }
 
-    public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-        final Claims claims = extractAllClaims(token);
-
-        return claimsResolver.apply(claims);
-    }
-
-    private List<String> getClaimOrEmptyList(String claim, String token) {
-        Claims claims = extractAllClaims(token);
-        if (claims.get(claim) == null) return List.of();
-        return claims.get(claim, List.class);
-    }
-
-    public Long extractHSUserId(String token) {
-        return Long.parseLong(extractClaim(token, Claims::getSubject));
-    }
-
-    public Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
+    // In the CLAIMS mode an authenticated request does not read the db at all, the principal is exactly what was true when the token was issued. Tokens issued before the name and the role were put into the claims still go to the db.
+    public HSUserPrincipal extractPrincipal(VerifiedToken verifiedToken) {
+        if (principalSource == PrincipalSource.CLAIMS && verifiedToken.name() != null && verifiedToken.role() != null) {
+            return new HSUserPrincipal(verifiedToken.subject(), verifiedToken.name(), Role.valueOf(verifiedToken.role()));
+        }
+        return principalCache.get(verifiedToken.subject(), this::loadPrincipal);
     }
 
-    public HSUserPrincipal extractPrincipal(String token) {
-        final Claims claims = extractAllClaims(token);
-        HSUser hsUser = hsUserComplexQueriesRepository.findOneById(claims.getSubject())
-                .orElseThrow(() -> new UserNotFoundException(UserNotFoundException.ByProperty.ID, claims.getSubject()));
+    private HSUserPrincipal loadPrincipal(String id) {
+        HSUser hsUser = hsUserComplexQueriesRepository.findOneById(id)
+                .orElseThrow(() -> new UserNotFoundException(UserNotFoundException.ByProperty.ID, id));
         hsUser.setPassword(null);
         return new HSUserPrincipal(hsUser);
     }
@@ -181,11 +224,11 @@ public class JWTService {
                 .issuedAt(new Date(System.currentTimeMillis())) // Instant.now(), the “iat” (issued at) claim identifies the time at which the JWT was issued. This claim can be used to determine the age of the JWT. Its value MUST be a number containing a NumericDate value. Use of this claim is OPTIONAL.
                 .expiration(new Date(System.currentTimeMillis() + expiration)) // Instant.now().plusMillis(expiration) or Instant.now().toEpochMilli() + expiration, the “exp” (expiration time) claim identifies the expiration time on or after which the JWT MUST NOT be accepted for processing. The processing of the “exp” claim requires that the current date/time MUST be before the expiration date/time listed in the “exp” claim. Implementers MAY provide for some small leeway, usually no more than a few minutes, to account for clock skew. Its value MUST be a number containing a NumericDate value. Use of this claim is OPTIONAL.
                 .claim("userId", userDetails.getId())
-//                .claim("userName", userDetails.getName())
-//                .claim("userRole", userDetails.getRole().name())
+                .claim("userName", userDetails.getName()) // userName and userRole are what the CLAIMS principal source builds the principal from
+                .claim("userRole", userDetails.getRole().name())
 //                .claim("userEnrollmentDate", userDetails.getEnrollmentDate().toString())
 //                .claim("userUpdatedAt", userDetails.getUpdatedAt().toString())
-                .signWith(getSignInKey())
+                .signWith(signInKey)
                 //.encryptWith(key, keyAlg, encryptionAlg)  //     if encrypting
                 .claims(additionalClaims)
                 .compact();
@@ -214,52 +257,9 @@ public class JWTService {
                 .expiration(new Date(System.currentTimeMillis() + expiration)) // Instant.now().plusMillis(expiration) or Instant.now().toEpochMilli() + expiration, the “exp” (expiration time) claim identifies the expiration time on or after which the JWT MUST NOT be accepted for processing. The processing of the “exp” claim requires that the current date/time MUST be before the expiration date/time listed in the “exp” claim. Implementers MAY provide for some small leeway, usually no more than a few minutes, to account for clock skew. Its value MUST be a number containing a NumericDate value. Use of this claim is OPTIONAL.
                 .claim("userId", userDetails.getId())
                 .claim("email", email)
-                .signWith(getSignInKey())
+                .signWith(signInKey)
                 //.encryptWith(key, keyAlg, encryptionAlg)  //     if encrypting
                 .claims(additionalClaims)
                 .compact();
     }
-
-    public boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
-    }
-
-    public boolean validateTokenBySignature(String token) {
-        // When you use a JWT, you must check its signature before storing and using it.
-        // You can enforce that the JWT you are parsing conforms to expectations that you require and are important for your application. For example, let's say that you require that the JWT you are parsing has a specific sub (subject) value, otherwise you may not trust the token. You can do that by using one of the various require* methods
-        try {
-            //Type-safe JWTs: If you are certain your parser will only ever encounter a specific kind of JWT (for example, you only ever use signed JWTs with Claims payloads, or encrypted JWTs with byte[] content payloads, etc), you can call the associated type-safe parseSignedClaims, parseEncryptedClaims, (etc) method variant instead of the generic parse method. These parse* methods will return the type-safe JWT you are expecting, for example, a Jws<Claims> or Jwe<byte[]> instead of a generic Jwt<?,?> instance.
-            Jwts.parser().verifyWith((SecretKey) getSignInKey()).build().parseSignedClaims(token).getPayload();  //OK, we can trust this JWT
-//                .verifyWith(key)      //     or a constant key used to verify all signed JWTs
-//                .decryptWith(key)     //     or a constant key used to decrypt all encrypted JWTs
-
-            //If parsing a JWS and the JWS was signed with a SecretKey, the same SecretKey should be specified on the JwtParserBuilder. For example:
-            //Jwts.parser()
-            //  .verifyWith(secretKey) // <----
-            //  .build()
-            //  .parseSignedClaims(jwsString);
-            //If parsing a JWS and the JWS was signed with a PrivateKey, that key’s corresponding PublicKey (not the PrivateKey) should be specified on the JwtParserBuilder. For example:
-            //Jwts.parser()
-            //  .verifyWith(publicKey) // <---- publicKey, not privateKey
-            //  .build()
-            //  .parseSignedClaims(jwsString);
-            // What if JWSs and JWEs can be created with different SecretKeys or public/private keys, or a combination of both? How do you know which key to specify if you don’t inspect the JWT first? In these cases, you’ll need to configure a parsing Key Locator
-
-            // token is trustworthy and has not been tampered with
-            return true;
-        } catch (ExpiredJwtException ex) {
-            log.error("token: " + token + " | " + "JWT expired", ex.getMessage());
-        } catch (IllegalArgumentException ex) {
-            log.error("token: " + token + " | " + "Token is null, empty or only whitespace", ex.getMessage());
-        } catch (MalformedJwtException ex) {
-            log.error("token: " + token + " | " + "JWT is invalid", ex);
-        } catch (UnsupportedJwtException ex) {
-            log.error("token: " + token + " | " + "JWT is not supported", ex);
-        } catch (SignatureException ex) {
-            log.error("token: " + token + " | " + "Signature validation failed");
-        } catch (JwtException jwtException) {
-            log.error("token: " + token + " | " + "Don't trust this JWT");
-        }
-        return false;
-    }
 }
@@ -0,0 +1,152 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.MimeMessage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.hisudoku.hisudokuapi.users.entities.OutboxMail;
+import org.hisudoku.hisudokuapi.users.repositories.OutboxMailComplexQueriesRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Delivers the mails queued in the mail_outbox collection (see OutboxMail), drained periodically by SchedulingConfiguration.
+// Every drain claims one batch of due mails, splits it into one chunk per worker thread and sends every chunk with a single MailService.sendBatch call, i.e. over one pooled SMTP connection (PooledJavaMailSender) - SMTP latency is paid by these threads only and the handshake not at all once the pool is warm. A failed attempt is retried with exponential backoff (initial-backoff * 2^(attempt - 1), capped at max-backoff) until max-attempts is reached, mails that can never be delivered (malformed address or message) fail right away.
+@Slf4j
+@Service
+public class MailOutboxWorker {
+    private final MailService mailService;
+    private final OutboxMailComplexQueriesRepository outboxMailComplexQueriesRepository;
+    private final ThreadPoolTaskExecutor executor;
+    private final int workerThreads;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration lease;
+
+    public MailOutboxWorker(
+            @Value("${application.mail.outbox.worker-threads}") int workerThreads,
+            @Value("${application.mail.outbox.batch-size}") int batchSize,
+            @Value("${application.mail.outbox.max-attempts}") int maxAttempts,
+            @Value("${application.mail.outbox.initial-backoff}") Duration initialBackoff,
+            @Value("${application.mail.outbox.max-backoff}") Duration maxBackoff,
+            @Value("${application.mail.outbox.lease}") Duration lease,
+            MailService mailService,
+            OutboxMailComplexQueriesRepository outboxMailComplexQueriesRepository
+    ) {
+        this.mailService = mailService;
+        this.outboxMailComplexQueriesRepository = outboxMailComplexQueriesRepository;
+        this.workerThreads = workerThreads;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.lease = lease;
+
+        this.executor = new ThreadPoolTaskExecutor();
+        this.executor.setCorePoolSize(workerThreads);
+        this.executor.setMaxPoolSize(workerThreads);
+        this.executor.setQueueCapacity(workerThreads); // a drain waits for its chunks before claiming the next batch, so at most one batch is ever queued
+        this.executor.setThreadNamePrefix("mail-outbox-");
+        this.executor.setWaitForTasksToCompleteOnShutdown(true); // mails in flight are finished, claimed but unsent ones are picked up again after their lease
+        this.executor.initialize();
+    }
+
+    // returns the number of mails claimed, a full batch means there may be more waiting
+    public int drain() {
+        List<OutboxMail> mails = outboxMailComplexQueriesRepository.claimDue(batchSize, lease);
+        List<List<OutboxMail>> chunks = new ArrayList<>();
+        for (int i = 0; i < mails.size(); i++) {
+            if (i < workerThreads) {
+                chunks.add(new ArrayList<>());
+            }
+            chunks.get(i % workerThreads).add(mails.get(i));
+        }
+        CompletableFuture.allOf(chunks.stream()
+                .map(chunk -> CompletableFuture.runAsync(() -> deliver(chunk), executor))
+                .toArray(CompletableFuture[]::new)
+        ).join();
+        return mails.size();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private void deliver(List<OutboxMail> chunk) {
+        List<OutboxMail> prepared = new ArrayList<>(chunk.size());
+        List<MimeMessage> messages = new ArrayList<>(chunk.size());
+        for (OutboxMail mail : chunk) {
+            try {
+                messages.add(mailService.createHtmlMessage(mail.getTo(), mail.getSubject(), mail.getHtmlBody()));
+                prepared.add(mail);
+            } catch (MessagingException | MailException e) {
+                failed(mail, e);
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        Map<Object, Exception> failedMessages = Map.of();
+        try {
+            mailService.sendBatch(messages.toArray(MimeMessage[]::new));
+        } catch (MailSendException e) {
+            failedMessages = e.getFailedMessages(); // keyed by the MimeMessage instances; empty when only closing the connection failed, the messages were sent then
+        } catch (MailException e) {
+            // e.g. MailAuthenticationException, nothing was sent
+            prepared.forEach(mail -> failed(mail, e));
+            return;
+        }
+        for (int i = 0; i < prepared.size(); i++) {
+            Exception failure = failedMessages.get(messages.get(i));
+            if (failure == null) {
+                outboxMailComplexQueriesRepository.markSent(prepared.get(i).getId());
+            } else {
+                failed(prepared.get(i), failure);
+            }
+        }
+    }
+
+    private void failed(OutboxMail mail, Exception e) {
+        //  The protocol specs for SMTP in RFC 821 specifies the 550 return code that the SMTP server should return when attempting to send an email to the incorrect address. But most of the public SMTP servers don’t do this. Instead, they send a “delivery failed” email or give no feedback at all. For example, Gmail SMTP server sends a “delivery failed” message. And we get no exceptions in our program. So, we have a few options to handle this case:
+        //    Catch the SendFailedException, which can never be thrown.
+        //    Check our sender mailbox for the “delivery failed” message for some period of time. This is not straightforward, and the time period is not determined.
+        //    If our mail server gives no feedback at all, we can do nothing.
+        boolean permanent = e instanceof AddressException || e instanceof MailParseException || e instanceof MailPreparationException;
+        LocalDateTime nextAttemptAt = permanent || mail.getAttempts() >= maxAttempts ? null : LocalDateTime.now(ZoneOffset.UTC).plus(backoff(mail.getAttempts()));
+        outboxMailComplexQueriesRepository.markFailed(mail.getId(), e.getMessage(), nextAttemptAt);
+        if (nextAttemptAt == null) {
+            log.error("Giving up on mail {} to {} after {} attempts => {}", mail.getId(), mail.getTo(), mail.getAttempts(), e.getLocalizedMessage());
+        } else {
+            log.warn("Attempt {} of mail {} failed, next attempt at {} => {}", mail.getAttempts(), mail.getId(), nextAttemptAt, e.getLocalizedMessage());
+        }
+    }
+
+    private Duration backoff(int attempts) {
+        Duration backoff = initialBackoff.multipliedBy(1L << Math.min(attempts - 1, 30));
+        return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -1,21 +1,25 @@
 package org.hisudoku.hisudokuapi.users.services;
 
+import org.hisudoku.hisudokuapi.users.entities.OutboxMail;
+import org.hisudoku.hisudokuapi.users.repositories.OutboxMailComplexQueriesRepository;
+
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
-import org.springframework.util.ResourceUtils;
-
-import org.thymeleaf.context.Context;
-import org.thymeleaf.spring6.SpringTemplateEngine;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 
@@ -29,18 +33,24 @@ public class MailService {
     private final String FORGOT_PASSWORD_LINK; // "noreply@example.com"
 
     private final JavaMailSender mailSender;
-    private final SpringTemplateEngine templateEngine;
+    private final MailTemplates mailTemplates;
+    private final OutboxMailComplexQueriesRepository outboxMailComplexQueriesRepository;
+
+    // classpath location -> content, inline images and attachments are read from the jar once instead of on every mail
+    private final Map<String, ByteArrayResource> classpathResources = new ConcurrentHashMap<>();
 
     public MailService(
             @Value("${spring.mail.no-reply}") String noReplyAddress,
             @Value("${spring.mail.activate-email-link}") String activateEmailLink,
             @Value("${spring.mail.forgot-password-link}") String forgotPasswordLink,
             JavaMailSender javaMailSender,
-            SpringTemplateEngine springTemplateEngine
+            MailTemplates mailTemplates,
+            OutboxMailComplexQueriesRepository outboxMailComplexQueriesRepository
     ) {
         this.NO_REPLY = noReplyAddress;
         this.mailSender = javaMailSender;
-        this.templateEngine = springTemplateEngine;
+        this.mailTemplates = mailTemplates;
+        this.outboxMailComplexQueriesRepository = outboxMailComplexQueriesRepository;
         this.ACTIVATE_EMAIL_LINK = activateEmailLink;
         this.FORGOT_PASSWORD_LINK = forgotPasswordLink;
 
@@ -54,52 +64,34 @@ public class MailService {
         //    props.put("mail.debug", "true");
     }
 
-    public void sendResetPasswordByOTT(String email, String userName, String passwordResetLink, String lang) { // throws MessagingException
-        Context context = new Context();
-        context.setVariable("passwordResetLink", passwordResetLink);
-        context.setVariable("userName", userName);
-
-//        Map<String, Object> templateModel = new HashMap<>();
-//        templateModel.put("username", "Example username");
-//        context.setVariables(templateModel);
-
-        context.setLocale(Locale.forLanguageTag(lang));
-        String html = templateEngine.process("mail/password-reset/password-reset.html", context);
-        try {
-            sendHtml(email, "reset password for account", html);
-        } catch (MessagingException e) {
-            //  The protocol specs for SMTP in RFC 821 specifies the 550 return code that the SMTP server should return when attempting to send an email to the incorrect address. But most of the public SMTP servers don’t do this. Instead, they send a “delivery failed” email or give no feedback at all. For example, Gmail SMTP server sends a “delivery failed” message. And we get no exceptions in our program. So, we have a few options to handle this case:
-            //    Catch the SendFailedException, which can never be thrown.
-            //    Check our sender mailbox for the “delivery failed” message for some period of time. This is not straightforward, and the time period is not determined.
-            //    If our mail server gives no feedback at all, we can do nothing.
-            log.error("Error while sending reset password email => {}", e.getLocalizedMessage());
-        }
+    public void sendResetPasswordByOTT(String email, String userName, String passwordResetLink, String lang) {
+        Map<String, String> variables = new HashMap<>(); // userName may be null, Map.of does not allow that
+        variables.put("passwordResetLink", passwordResetLink);
+        variables.put("userName", userName);
+        String html = mailTemplates.render("mail/password-reset/password-reset.html", Locale.forLanguageTag(lang), variables);
+        enqueueHtml(email, "reset password for account", html);
     }
 
-    public void sendResetPasswordByJWT(String email, String userName, String token, String lang) { // throws MessagingException
-        Context context = new Context();
-        context.setVariable("passwordResetLink", FORGOT_PASSWORD_LINK + "/token=" + token);
-        context.setVariable("userName", userName);
-        context.setLocale(Locale.forLanguageTag(lang));
-        String html = templateEngine.process("mail/password-reset/password-reset.html", context);
-        try {
-            sendHtml(email, "reset password for account", html);
-        } catch (MessagingException e) {
-            log.error("Error while sending reset password email => {}", e.getLocalizedMessage());
-        }
+    public void sendResetPasswordByJWT(String email, String userName, String token, String lang) {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("passwordResetLink", FORGOT_PASSWORD_LINK + "/token=" + token);
+        variables.put("userName", userName);
+        String html = mailTemplates.render("mail/password-reset/password-reset.html", Locale.forLanguageTag(lang), variables);
+        enqueueHtml(email, "reset password for account", html);
     }
 
     public void sendActivateEmailByUUID(String email, String userName, String token, String lang) {
-        Context context = new Context();
-        context.setVariable("activationLink", ACTIVATE_EMAIL_LINK + "/token=" + token);
-        context.setVariable("userName", userName);
-        context.setLocale(Locale.forLanguageTag(lang));
-        String activateAccountMailHtml = templateEngine.process("mail/activate-email/activate-email.html", context);
-        try {
-            sendHtml(email, "activate your account", activateAccountMailHtml);
-        } catch (MessagingException e) {
-            log.error("Error while sending account activation email => {}", e.getLocalizedMessage());
-        }
+        Map<String, String> variables = new HashMap<>();
+        variables.put("activationLink", ACTIVATE_EMAIL_LINK + "/token=" + token);
+        variables.put("userName", userName);
+        String activateAccountMailHtml = mailTemplates.render("mail/activate-email/activate-email.html", Locale.forLanguageTag(lang), variables);
+        enqueueHtml(email, "activate your account", activateAccountMailHtml);
+    }
+
+    // Queues the mail in the outbox and returns, MailOutboxWorker delivers it (with retries) outside of the request thread
+    public void enqueueHtml(String to, String subject, String htmlBody) {
+        OutboxMail mail = outboxMailComplexQueriesRepository.addOne(to, subject, htmlBody);
+        log.debug("Queued mail {} to {}", mail.getId(), to);
     }
 
     public void sendTextMessage(String to, String subject, String text) {
@@ -113,7 +105,7 @@ public class MailService {
         mailSender.send(message);
     }
 
-    public void inlineHtml(String to, String subject) throws MessagingException, FileNotFoundException {
+    public void inlineHtml(String to, String subject) throws MessagingException {
         MimeMessage message = mailSender.createMimeMessage();
         MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
 
@@ -121,7 +113,7 @@ public class MailService {
         helper.setTo(to);
         helper.setSubject(subject);
 
-        helper.addAttachment("attachment.pdf", ResourceUtils.getFile("classpath:templates/mail/attachments/HiSudoku-attachment.pdf"));
+        helper.addAttachment("attachment.pdf", classpathResource("templates/mail/attachments/HiSudoku-attachment.pdf"));
         //    FileSystemResource file = new FileSystemResource(new File(pathToAttachment));
         //    helper.addAttachment("Invoice", file);
 
@@ -132,15 +124,44 @@ public class MailService {
         helper.setText("<html><body><p>Attachment test!</p><img src='cid:logo'></body></html>", true);
 
         // Ordering is important for inlining we first need to add html text, then resources
-        helper.addInline("logo", ResourceUtils.getFile("classpath:static/assets/icon.png"));
+        helper.addInline("logo", classpathResource("static/assets/icon.png"), helper.getFileTypeMap().getContentType("static/assets/icon.png"));
 
         mailSender.send(message);
     }
 
-    public record MailResource(String name, File file) {
+    // location - classpath location of the content, e.g. "static/assets/icon.png"
+    public record MailResource(String name, String location) {
+    }
+
+    // ResourceUtils.getFile only works for an exploded classpath and opened the file on every mail, the bytes are small and the same for every recipient
+    private ByteArrayResource classpathResource(String location) {
+        return classpathResources.computeIfAbsent(location, key -> {
+            try {
+                return new ByteArrayResource(new ClassPathResource(key).getContentAsByteArray(), key);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read mail resource " + key, e);
+            }
+        });
     }
 
     public void sendHtmlMessageWithResources(String to, String subject, String htmlBody, List<MailResource> inlines, List<MailResource> attachments) throws MessagingException {
+        mailSender.send(createHtmlMessageWithResources(to, subject, htmlBody, inlines, attachments));
+    }
+
+    public void sendHtml(String to, String subject, String htmlBody) throws MessagingException {
+        sendHtmlMessageWithResources(to, subject, htmlBody, Collections.emptyList(), Collections.emptyList());
+    }
+
+    public MimeMessage createHtmlMessage(String to, String subject, String htmlBody) throws MessagingException {
+        return createHtmlMessageWithResources(to, subject, htmlBody, Collections.emptyList(), Collections.emptyList());
+    }
+
+    // Sends all messages over one (pooled) SMTP connection. Messages that could not be sent are reported by MailSendException.getFailedMessages, the other ones were delivered to the server.
+    public void sendBatch(MimeMessage... messages) {
+        mailSender.send(messages);
+    }
+
+    private MimeMessage createHtmlMessageWithResources(String to, String subject, String htmlBody, List<MailResource> inlines, List<MailResource> attachments) throws MessagingException {
         MimeMessage message = mailSender.createMimeMessage();
         MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
         helper.setFrom(NO_REPLY);
@@ -149,7 +170,7 @@ public class MailService {
 
         if (Objects.nonNull(attachments)) {
             for (MailResource attachment : attachments) {
-                helper.addAttachment(attachment.name, attachment.file);
+                helper.addAttachment(attachment.name, classpathResource(attachment.location));
             }
         }
 
@@ -157,13 +178,9 @@ public class MailService {
 
         if (Objects.nonNull(inlines)) {
             for (MailResource inline : inlines) {
-                helper.addInline(inline.name, inline.file);
+                helper.addInline(inline.name, classpathResource(inline.location), helper.getFileTypeMap().getContentType(inline.location));
             }
         }
-        mailSender.send(message);
-    }
-
-    public void sendHtml(String to, String subject, String htmlBody) throws MessagingException {
-        sendHtmlMessageWithResources(to, subject, htmlBody, Collections.emptyList(), Collections.emptyList());
+        return message;
     }
 }
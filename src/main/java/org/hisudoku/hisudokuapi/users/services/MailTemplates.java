@@ -0,0 +1,89 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
+
+import org.thymeleaf.context.Context;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+// The mail templates are rendered by Thymeleaf once per (template, locale) with a unique sentinel in place of every per-recipient variable. The output is split at the sentinels, so rendering a mail is only concatenating the static fragments with the escaped values - the messages lookup, the expression evaluation and the markup processing of everything else happen once.
+// Thymeleaf itself already caches the parsed template (spring.thymeleaf.cache), what this saves is processing the whole document for every mail.
+// Locales come from Accept-Language, so the number of cached renderings is bounded.
+@Service
+public class MailTemplates {
+    private static final int MAX_RENDERED_TEMPLATES = 64;
+
+    private final SpringTemplateEngine templateEngine;
+    private final Cache<TemplateKey, PrerenderedTemplate> prerenderedTemplates = Caffeine.newBuilder()
+            .maximumSize(MAX_RENDERED_TEMPLATES)
+            .build();
+
+    public MailTemplates(SpringTemplateEngine templateEngine) {
+        this.templateEngine = templateEngine;
+    }
+
+    // variables are the per-recipient values, they are HTML-escaped when they are inserted. Variables with a null value are left out of the rendering, so defaults in the template (${userName?:'HiSudoku user'}) still apply - that is a separate prerendered variant.
+    public String render(String template, Locale locale, Map<String, String> variables) {
+        List<String> names = variables.entrySet().stream()
+                .filter(variable -> variable.getValue() != null)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+        return prerenderedTemplates.get(new TemplateKey(template, locale, names), this::prerender).render(variables);
+    }
+
+    private PrerenderedTemplate prerender(TemplateKey key) {
+        String prefix = "hs-" + UUID.randomUUID() + "-"; // letters, digits and hyphens, no escaping of Thymeleaf changes it
+        Context context = new Context(key.locale());
+        for (String variable : key.variables()) {
+            context.setVariable(variable, prefix + variable);
+        }
+        String html = templateEngine.process(key.template(), context);
+
+        List<String> fragments = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            int sentinel = html.indexOf(prefix, from);
+            if (sentinel < 0) {
+                break;
+            }
+            String variable = key.variables().stream()
+                    .filter(name -> html.startsWith(prefix + name, sentinel))
+                    .reduce((first, second) -> first.length() >= second.length() ? first : second) // "link" must not win over "linkText"
+                    .orElseThrow(() -> new IllegalStateException("Unknown sentinel in the template " + key.template()));
+            fragments.add(html.substring(from, sentinel));
+            variables.add(variable);
+            from = sentinel + prefix.length() + variable.length();
+        }
+        fragments.add(html.substring(from));
+        return new PrerenderedTemplate(fragments.toArray(String[]::new), variables.toArray(String[]::new));
+    }
+
+    private record TemplateKey(String template, Locale locale, List<String> variables) {
+    }
+
+    // fragments[0] variables[0] fragments[1] variables[1] ... fragments[n]
+    private record PrerenderedTemplate(String[] fragments, String[] variables) {
+        String render(Map<String, String> values) {
+            StringBuilder html = new StringBuilder(fragments.length * 256);
+            for (int i = 0; i < variables.length; i++) {
+                html.append(fragments[i]);
+                String value = values.get(variables[i]);
+                if (value != null) {
+                    html.append(HtmlUtils.htmlEscape(value));
+                }
+            }
+            return html.append(fragments[fragments.length - 1]).toString();
+        }
+    }
+}
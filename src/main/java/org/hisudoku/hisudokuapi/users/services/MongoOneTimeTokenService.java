@@ -0,0 +1,84 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.hisudoku.hisudokuapi.general.utils.HashUtils;
+import org.hisudoku.hisudokuapi.users.entities.StoredOneTimeToken;
+import org.hisudoku.hisudokuapi.users.repositories.OneTimeTokenComplexQueriesRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.ott.DefaultOneTimeToken;
+import org.springframework.security.authentication.ott.GenerateOneTimeTokenRequest;
+import org.springframework.security.authentication.ott.OneTimeToken;
+import org.springframework.security.authentication.ott.OneTimeTokenAuthenticationToken;
+import org.springframework.security.authentication.ott.OneTimeTokenService;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+// Magic link tokens kept in the one_time_token collection instead of the map of InMemoryOneTimeTokenService, so they survive a restart and a token issued by one instance of the api can be consumed by any other one - no sticky sessions needed behind the load balancer.
+// Token values that were already consumed, expired or never existed are remembered in a small local negative cache for the time to live of a token, replaying a used link or guessing tokens does not reach the db again. A token value is a random UUID, so an entry there can never be a token that is issued later.
+@Slf4j
+@Service
+public class MongoOneTimeTokenService implements OneTimeTokenService {
+    private final OneTimeTokenComplexQueriesRepository oneTimeTokenComplexQueriesRepository;
+    private final Duration timeToLive;
+    private final Cache<String, Boolean> unknownTokens;
+
+    public MongoOneTimeTokenService(
+            @Value("${application.security.ott.time-to-live}") Duration timeToLive,
+            @Value("${application.security.ott.negative-cache.maximum-size}") long negativeCacheMaximumSize,
+            OneTimeTokenComplexQueriesRepository oneTimeTokenComplexQueriesRepository,
+            MeterRegistry meterRegistry
+    ) {
+        this.oneTimeTokenComplexQueriesRepository = oneTimeTokenComplexQueriesRepository;
+        this.timeToLive = timeToLive;
+        this.unknownTokens = Caffeine.newBuilder()
+                .maximumSize(negativeCacheMaximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, unknownTokens, "unknown-one-time-tokens");
+    }
+
+    @Override
+    public OneTimeToken generate(GenerateOneTimeTokenRequest request) {
+        String tokenValue = UUID.randomUUID().toString();
+        Instant expiresAt = Instant.now().plus(timeToLive);
+        oneTimeTokenComplexQueriesRepository.addOne(HashUtils.sha256Hex(tokenValue), request.getUsername(), expiresAt);
+        return new DefaultOneTimeToken(tokenValue, request.getUsername(), expiresAt);
+    }
+
+    // returns null when the token cannot be used, OneTimeTokenAuthenticationProvider turns that into an InvalidOneTimeTokenException
+    @Override
+    public OneTimeToken consume(OneTimeTokenAuthenticationToken authenticationToken) {
+        String tokenValue = authenticationToken.getTokenValue();
+        if (tokenValue == null) {
+            return null;
+        }
+        String tokenDigest = HashUtils.sha256Hex(tokenValue);
+        if (unknownTokens.getIfPresent(tokenDigest) != null) {
+            return null;
+        }
+
+        Optional<StoredOneTimeToken> storedToken = oneTimeTokenComplexQueriesRepository.removeOne(tokenDigest); // removed even when it is expired, it would be useless anyway
+        unknownTokens.put(tokenDigest, Boolean.TRUE);
+        if (storedToken.isEmpty()) {
+            return null;
+        }
+        if (storedToken.get().getExpiresAt().isBefore(Instant.now())) {
+            log.debug("Expired one-time token of {} was used", storedToken.get().getUsername());
+            return null;
+        }
+        return new DefaultOneTimeToken(tokenValue, storedToken.get().getUsername(), storedToken.get().getExpiresAt());
+    }
+}
@@ -0,0 +1,141 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.time.Duration;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// JavaMailSenderImpl connects (and authenticates) a new SMTP transport for every send call and closes it right after, so every mail pays the TCP/TLS handshake, EHLO and AUTH. This one keeps the connected transports in a pool instead:
+//    - send(MimeMessage...) sends the whole batch over one pooled connection (JavaMailSenderImpl.doSend already reconnects in the middle of a batch when the connection drops)
+//    - at most maxConnections transports are open at a time, callers beyond that wait for one to be returned
+//    - an idle transport is checked once when it is taken from the pool (SMTPTransport.isConnected sends a NOOP), connections idle for longer than idleTimeout are closed by evictIdle - SMTP servers drop idle clients themselves after a few minutes
+//    - doSend asks the transport whether it is connected before every message of a batch, PooledTransport answers that without a round trip: it is connected until it is closed or a send fails, a failed send makes doSend connect a new transport for the rest of the batch and the broken one is not pooled again
+// Configured from spring.mail.* in MailConfiguration, it replaces the sender Boot would auto-configure.
+@Slf4j
+public class PooledJavaMailSender extends JavaMailSenderImpl {
+    private final Semaphore connections;
+    private final Duration idleTimeout;
+    private final Deque<IdleTransport> idleTransports = new ConcurrentLinkedDeque<>(); // most recently returned first
+
+    public PooledJavaMailSender(int maxConnections, Duration idleTimeout) {
+        this.connections = new Semaphore(maxConnections, true);
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Override
+    protected Transport connectTransport() throws MessagingException {
+        try {
+            connections.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+        }
+        try {
+            IdleTransport idle;
+            while ((idle = idleTransports.pollFirst()) != null) {
+                if (idle.transport().isConnected()) {
+                    return new PooledTransport(idle.transport());
+                }
+                closeQuietly(idle.transport());
+            }
+            return new PooledTransport(super.connectTransport());
+        } catch (MessagingException | RuntimeException e) {
+            connections.release();
+            throw e;
+        }
+    }
+
+    // closes the connections that have not been used for idleTimeout, returns how many were closed
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (IdleTransport idle : idleTransports) {
+            if (now - idle.idleSince() >= idleTimeout.toNanos() && idleTransports.removeFirstOccurrence(idle)) {
+                closeQuietly(idle.transport());
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    public int getIdleConnections() {
+        return idleTransports.size();
+    }
+
+    @PreDestroy
+    public void closeIdle() {
+        IdleTransport idle;
+        while ((idle = idleTransports.pollFirst()) != null) {
+            closeQuietly(idle.transport());
+        }
+    }
+
+    private void release(Transport transport, boolean reusable) {
+        try {
+            if (reusable) {
+                idleTransports.offerFirst(new IdleTransport(transport, System.nanoTime()));
+            } else {
+                closeQuietly(transport);
+            }
+        } finally {
+            connections.release();
+        }
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            log.debug("Closing SMTP connection failed => {}", e.getLocalizedMessage());
+        }
+    }
+
+    private record IdleTransport(Transport transport, long idleSince) {
+    }
+
+    // what doSend gets from connectTransport, close() hands the connection back to the pool instead of ending the SMTP session
+    private class PooledTransport extends Transport {
+        private final Transport delegate;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private volatile boolean failed = false;
+
+        PooledTransport(Transport delegate) {
+            super(getSession(), delegate.getURLName());
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void sendMessage(Message message, Address[] addresses) throws MessagingException {
+            try {
+                delegate.sendMessage(message, addresses);
+            } catch (MessagingException | RuntimeException e) {
+                failed = true; // the session may be in any state, e.g. dropped by the server in the middle of DATA
+                throw e;
+            }
+        }
+
+        // no NOOP here, the connection was checked when it was taken from the pool
+        @Override
+        public boolean isConnected() {
+            return !released.get() && !failed;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(delegate, !failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import org.hisudoku.hisudokuapi.users.models.HSUserPrincipal;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+// Principals resolved by JWTAuthenticationFilter, keyed by user id. Every authenticated request used to read the user from the db, with this only the first request after a change of the user or after the entry expired does.
+// Entries are invalidated explicitly by the services that change what a principal is made of (role, name, email, password) or remove the user. Those invalidations are local to this instance, so the time to live is what bounds staleness when the api runs on more than one node.
+// HSUserPrincipal is immutable and holds no password (JWTService clears it), so the same instance can be shared between requests.
+@Service
+public class PrincipalCache {
+    private final Cache<String, HSUserPrincipal> cache;
+
+    public PrincipalCache(
+            @Value("${application.security.principal-cache.maximum-size}") long maximumSize,
+            @Value("${application.security.principal-cache.time-to-live}") Duration timeToLive,
+            MeterRegistry meterRegistry
+    ) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "principals");
+    }
+
+    // the loader runs at most once per id at a time, concurrent requests of the same user wait for it instead of all going to the db; exceptions thrown by the loader propagate and nothing is cached
+    public HSUserPrincipal get(String userId, Function<String, HSUserPrincipal> loader) {
+        return cache.get(userId, loader);
+    }
+
+    public void invalidate(String userId) {
+        cache.invalidate(userId);
+    }
+}
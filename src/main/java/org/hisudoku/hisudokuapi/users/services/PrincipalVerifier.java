@@ -0,0 +1,39 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import org.hisudoku.hisudokuapi.users.enums.PrincipalSource;
+import org.hisudoku.hisudokuapi.users.models.HSUserPrincipal;
+import org.hisudoku.hisudokuapi.users.repositories.HSUserComplexQueriesRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+// Used in @PreAuthorize of sensitive mutations (account credentials, account removal, admin actions): "... and @principalVerifier.isCurrent(principal)".
+// With PrincipalSource.CLAIMS the principal of a request may be older than the user it describes - it was built from the token claims - so these mutations read the role from the db and refuse to run when it is no longer the one the principal was granted, e.g. for a user that has been banned since the token was issued.
+// With PrincipalSource.DATABASE the principal has just been loaded from the db (through PrincipalCache, which the role changes invalidate) and reading it again would only add a query per mutation.
+@Service
+public class PrincipalVerifier {
+    private final HSUserComplexQueriesRepository hsUserComplexQueriesRepository;
+    private final PrincipalSource principalSource;
+
+    public PrincipalVerifier(
+            @Value("${application.security.jwt.principal-source:database}") PrincipalSource principalSource,
+            HSUserComplexQueriesRepository hsUserComplexQueriesRepository
+    ) {
+        this.principalSource = principalSource;
+        this.hsUserComplexQueriesRepository = hsUserComplexQueriesRepository;
+    }
+
+    public boolean isCurrent(Object principal) {
+        if (!(principal instanceof HSUserPrincipal hsUserPrincipal)) {
+            return false;
+        }
+        if (principalSource == PrincipalSource.DATABASE) {
+            return true;
+        }
+        return hsUserComplexQueriesRepository.findOneById(hsUserPrincipal.getId(), List.of("role"))
+                .map(user -> hsUserPrincipal.getRole().name().equals(user.getRole()))
+                .orElse(false);
+    }
+}
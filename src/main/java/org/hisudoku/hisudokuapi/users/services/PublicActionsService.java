@@ -9,6 +9,7 @@ import org.hisudoku.hisudokuapi.users.repositories.HSUserComplexQueriesRepositor
 
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.Objects;
 
 @Service
@@ -16,8 +17,8 @@ import java.util.Objects;
 public class PublicActionsService {
     private final HSUserComplexQueriesRepository hsUserComplexQueriesRepository;
 
-    public UserModel findOneById(String id) {
-        return hsUserComplexQueriesRepository.findOneById(id)
+    public UserModel findOneById(String id, Collection<String> properties) {
+        return hsUserComplexQueriesRepository.findOneById(id, properties)
                 .map(HSUserUtils::mapToUserModelDTO)
                 .orElseThrow(()->new UserNotFoundException(UserNotFoundException.ByProperty.ID, id));
 
@@ -30,11 +31,11 @@ public class PublicActionsService {
                 .orElseThrow(()->new UserNotFoundException(UserNotFoundException.ByProperty.NAME, name));
     }
 
-    public UserFeedModel userFeed(Integer usersLimit, String userCursor) {
+    public UserFeedModel userFeed(Integer usersLimit, String userCursor, Collection<String> properties) {
         if(Objects.isNull(userCursor)) {
-            return hsUserComplexQueriesRepository.findMany(usersLimit);
+            return hsUserComplexQueriesRepository.findMany(usersLimit, properties);
         } else {
-            return hsUserComplexQueriesRepository.findMany(usersLimit, userCursor);
+            return hsUserComplexQueriesRepository.findMany(usersLimit, userCursor, properties);
         }
     }
 
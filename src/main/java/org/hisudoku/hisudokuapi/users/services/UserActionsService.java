@@ -3,7 +3,9 @@ package org.hisudoku.hisudokuapi.users.services;
 import lombok.RequiredArgsConstructor;
 
 import org.hisudoku.hisudokuapi.general.exceptions.*;
+import org.hisudoku.hisudokuapi.general.graphql.AnonymousResponseCache;
 import org.hisudoku.hisudokuapi.sudokus.repositories.SudokuComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.sudokus.services.FavouriteToggleBuffer;
 import org.hisudoku.hisudokuapi.users.dtos.ActivateEmailInput;
 import org.hisudoku.hisudokuapi.users.dtos.ForgotPasswordInput;
 import org.hisudoku.hisudokuapi.users.dtos.UpdateMyEmailInput;
@@ -29,6 +31,9 @@ public class UserActionsService {
     private final JWTService jwtService;
     private final EmailActivationTokenComplexQueriesRepository emailActivationTokenComplexQueriesRepository;
     private final SudokuComplexQueriesRepository sudokuComplexQueriesRepository;
+    private final FavouriteToggleBuffer favouriteToggleBuffer;
+    private final PrincipalCache principalCache;
+    private final AnonymousResponseCache anonymousResponseCache;
 
     public MessageResponseModel requestUpdatePasswordByOTT(ForgotPasswordInput forgotPasswordInput, String lang) {
         String email = forgotPasswordInput.getEmail();
@@ -60,9 +65,10 @@ public class UserActionsService {
     }
 
     public AccountModel updatePassword(HSUserPrincipal principal, String newPassword) {
-        return userRepository.findOneByIdUpdatePassword(principal.getId(), passwordEncoder.encode(newPassword))
-                .map(HSUserUtils::mapToAccountModelCreatedSudokusNullDTO)
+        HSUser user = userRepository.findOneByIdUpdatePassword(principal.getId(), passwordEncoder.encode(newPassword))
                 .orElseThrow(() -> new OperationFailedException("change password"));
+        principalCache.invalidate(user.getId());
+        return HSUserUtils.mapToAccountModelCreatedSudokusNullDTO(user);
 //        Optional.ofNullable(context.getAuthentication())
 //                .ifPresentOrElse(authentication -> {
 //                    HSUserPrincipal principal = (HSUserPrincipal) authentication.getPrincipal();
@@ -95,6 +101,7 @@ public class UserActionsService {
         }
         HSUser user = userRepository.findOneByIdUpdateEmail(emailActivationToken.getPrincipalId(), emailActivationToken.getEmail())
                 .orElseThrow(() -> new OperationFailedException("activate email"));
+        principalCache.invalidate(user.getId());
         emailActivationTokenComplexQueriesRepository.removeOneById(emailActivationToken.getId())
                 .orElseThrow(() -> new OperationFailedException("activate email"));
 
@@ -122,15 +129,20 @@ public class UserActionsService {
             throw new NameTakenException(newUsername);
         }
 
-        return this.userRepository.updateOneUsername(userId, newUsername)
-                .map(HSUserUtils::mapToAccountModelCreatedSudokusNullDTO)
+        HSUser user = this.userRepository.updateOneUsername(userId, newUsername)
                 .orElseThrow(() -> new OperationFailedException("update username"));
+        principalCache.invalidate(userId);
+        return HSUserUtils.mapToAccountModelCreatedSudokusNullDTO(user);
     }
 
     public MessageResponseModel removeOne(HSUserPrincipal principal) {
         this.sudokuComplexQueriesRepository.removeManyByAuthor(principal.getId());
+        this.favouriteToggleBuffer.discardUser(principal.getId());
+        this.sudokuComplexQueriesRepository.removeFavouritesOfUser(principal.getId());
         HSUser hsUser = this.userRepository.removeOneById(principal.getId())
                 .orElseThrow(() -> new OperationFailedException("remove one"));
+        principalCache.invalidate(hsUser.getId());
+        anonymousResponseCache.invalidateAll(); // their sudokus and likes are gone, from any feed page or sudoku
         return new MessageResponseModel("removed user with id: " + hsUser.getId());
     }
 
@@ -0,0 +1,78 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import org.hisudoku.hisudokuapi.general.utils.HashUtils;
+import org.hisudoku.hisudokuapi.users.models.VerifiedToken;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Function;
+
+// Clients reuse the same access token for many requests, this keeps the result of verifying a token so the HMAC and the parsing of the claims happen once per token instead of once per request.
+// The key is the SHA-256 of the raw token, the tokens themselves are not kept in memory. Only tokens that passed verification are cached, so garbage sent in the Authorization header cannot push valid entries out.
+// An entry lives exactly until the exp of its token, a cached token is never accepted after it has expired. The size bound evicts the least recently used entries first (Caffeine's W-TinyLFU, which approximates LRU with frequency on top).
+@Service
+public class VerifiedTokenCache {
+    private final boolean enabled;
+    private final Cache<String, VerifiedToken> cache;
+
+    public VerifiedTokenCache(
+            @Value("${application.security.jwt.token-cache.enabled}") boolean enabled,
+            @Value("${application.security.jwt.token-cache.maximum-size}") long maximumSize,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new UntilTokenExpiration())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "verified-tokens"); // cache.gets{result=hit|miss}, cache.evictions, cache.size
+        Gauge.builder("cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .tag("cache", "verified-tokens")
+                .description("The ratio of cache requests which were hits")
+                .register(meterRegistry);
+    }
+
+    public Optional<VerifiedToken> get(String token, Function<String, Optional<VerifiedToken>> verifier) {
+        if (!enabled || token == null) {
+            return verifier.apply(token);
+        }
+        String key = HashUtils.sha256Hex(token);
+        VerifiedToken cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<VerifiedToken> verified = verifier.apply(token);
+        verified.ifPresent(verifiedToken -> cache.put(key, verifiedToken));
+        return verified;
+    }
+
+    private static class UntilTokenExpiration implements Expiry<String, VerifiedToken> {
+        @Override
+        public long expireAfterCreate(String key, VerifiedToken value, long currentTime) {
+            return Math.max(0, Duration.between(Instant.now(), value.expiration()).toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, VerifiedToken value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, VerifiedToken value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
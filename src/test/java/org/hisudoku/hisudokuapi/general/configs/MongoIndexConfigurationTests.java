@@ -0,0 +1,55 @@
+package org.hisudoku.hisudokuapi.general.configs;
+
+import org.hisudoku.hisudokuapi.TestcontainersConfiguration;
+import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
+import org.hisudoku.hisudokuapi.users.entities.HSUser;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.test.context.ActiveProfiles;
+import org.bson.Document;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The test profile runs with application.mongo.indexes.collscan=fail, so the context starting at all already means every query pattern got an index
+@Import(TestcontainersConfiguration.class)
+@ActiveProfiles("test")
+@SpringBootTest
+class MongoIndexConfigurationTests {
+    @Autowired
+    private MongoIndexConfiguration mongoIndexConfiguration;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    void indexesAreCreatedAtStartup() {
+        List<String> sudokuIndexes = mongoTemplate.indexOps(Sudoku.class).getIndexInfo().stream().map(IndexInfo::getName).toList();
+        List<String> userIndexes = mongoTemplate.indexOps(HSUser.class).getIndexInfo().stream().map(IndexInfo::getName).toList();
+
+        assertTrue(sudokuIndexes.contains("author_id_1__id_-1"));
+        assertTrue(userIndexes.containsAll(List.of("name_1", "email_1", "role_1__id_1")));
+        assertTrue(mongoTemplate.indexOps(HSUser.class).getIndexInfo().stream().filter(index -> index.getName().equals("name_1")).allMatch(IndexInfo::isUnique));
+    }
+
+    @Test
+    void everyQueryPatternIsServedByAnIndex() {
+        assertTrue(mongoIndexConfiguration.findCollectionScans().isEmpty());
+    }
+
+    @Test
+    void collectionScanIsDetected() {
+        Document unindexed = mongoTemplate.getCollection(mongoTemplate.getCollectionName(HSUser.class)).find(new Document("password", "password")).explain();
+        Document indexed = mongoTemplate.getCollection(mongoTemplate.getCollectionName(HSUser.class)).find(new Document("name", "name")).explain();
+
+        assertTrue(MongoIndexConfiguration.usesCollectionScan(unindexed));
+        assertFalse(MongoIndexConfiguration.usesCollectionScan(indexed));
+    }
+}
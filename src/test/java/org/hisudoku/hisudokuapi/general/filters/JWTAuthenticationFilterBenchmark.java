@@ -0,0 +1,82 @@
+package org.hisudoku.hisudokuapi.general.filters;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+
+import org.hisudoku.hisudokuapi.users.enums.PrincipalSource;
+import org.hisudoku.hisudokuapi.users.enums.Role;
+import org.hisudoku.hisudokuapi.users.models.HSUserPrincipal;
+import org.hisudoku.hisudokuapi.users.services.JWTService;
+import org.hisudoku.hisudokuapi.users.services.PrincipalCache;
+import org.hisudoku.hisudokuapi.users.services.VerifiedTokenCache;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+// Throughput of JWTAuthenticationFilter for a client that keeps sending the same bearer token, with VerifiedTokenCache on and off.
+// The principal is built from the token claims (PrincipalSource.CLAIMS), so the numbers are the token handling alone, without a db.
+// Run the main method (from the IDE, or: mvn test-compile && java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" org.hisudoku.hisudokuapi.general.filters.JWTAuthenticationFilterBenchmark)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JWTAuthenticationFilterBenchmark {
+    private static final String SECRET_KEY = "ZjQ2Y2U4YjgxN2Q1NDg2MmE5YzM4ODk1OWM0ZmM5NzM3YjY1MGE0MmVmZDg0YjE1YTI4MGY3ZDJmMWQ3YzNkNQ==";
+    private static final FilterChain NOOP_CHAIN = (request, response) -> {
+    };
+
+    @Param({"true", "false"})
+    private boolean tokenCache;
+
+    private JWTAuthenticationFilter filter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() {
+        JWTService jwtService = new JWTService(
+                SECRET_KEY,
+                Duration.ofMinutes(15).toMillis(),
+                PrincipalSource.CLAIMS,
+                null,
+                new PrincipalCache(1, Duration.ofMinutes(5), new SimpleMeterRegistry()),
+                new VerifiedTokenCache(tokenCache, 10_000, new SimpleMeterRegistry())
+        );
+        String now = LocalDateTime.now().toString();
+        String token = jwtService.issueAuthToken(new HSUserPrincipal("65f1c0a2b7e4d1a9c8f3e210", "benchmark", null, Role.USER.name(), now, now, "benchmark@hisudoku.org"));
+
+        filter = new JWTAuthenticationFilter(jwtService);
+        request = new MockHttpServletRequest("POST", "/graphql");
+        request.addHeader("Authorization", "Bearer " + token);
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public Object authenticatedRequest() throws ServletException, IOException {
+        try {
+            filter.doFilter(request, response, NOOP_CHAIN);
+            return SecurityContextHolder.getContext().getAuthentication();
+        } finally {
+            SecurityContextHolder.clearContext(); // every invocation is a new request
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JWTAuthenticationFilterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,80 @@
+package org.hisudoku.hisudokuapi.general.graphql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.graphql.server.WebGraphQlInterceptor;
+import org.springframework.graphql.server.WebGraphQlRequest;
+import org.springframework.graphql.server.WebGraphQlResponse;
+import org.springframework.graphql.support.DefaultExecutionGraphQlResponse;
+import org.springframework.http.HttpHeaders;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Invalidations that happen while an operation executes, simulated by a chain that invalidates before it returns the response; the cache is observed through the number of executions that reach the chain
+class AnonymousResponseCacheInvalidationTests {
+    private static final String SUDOKU = "query Sudoku($sudokuId: ID!) { sudoku(sudokuId: $sudokuId) { id content } }";
+    private static final String SUDOKU_ID = "0123456789abcdef01234567";
+
+    private final AnonymousResponseCache cache = new AnonymousResponseCache(true, 100, Duration.ofMinutes(1), new ObjectMapper(), new SimpleMeterRegistry());
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @Test
+    void invalidationOfAnotherTagDoesNotKeepTheResponseOutOfTheCache() {
+        execute(() -> cache.invalidate(AnonymousResponseCache.favouritesTag("fedcba9876543210fedcba98")));
+        execute(() -> {
+        });
+
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    void invalidationOfItsOwnTagKeepsTheResponseOutOfTheCache() {
+        execute(() -> cache.invalidate(AnonymousResponseCache.sudokuTag(SUDOKU_ID)));
+        execute(() -> {
+        });
+        execute(() -> {
+        });
+
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    void invalidateAllKeepsEveryRunningResponseOutOfTheCache() {
+        execute(cache::invalidateAll);
+        execute(() -> {
+        });
+
+        assertEquals(2, executions.get());
+    }
+
+    // executes the query, the chain tags it the way SudokuResolver does and runs duringExecution before the response is returned
+    private void execute(Runnable duringExecution) {
+        WebGraphQlInterceptor.Chain chain = request -> {
+            executions.incrementAndGet();
+            ExecutionInput executionInput = request.toExecutionInput();
+            AnonymousResponseCache.tag(executionInput.getGraphQLContext(), AnonymousResponseCache.sudokuTag(SUDOKU_ID));
+            duringExecution.run();
+            ExecutionResult result = ExecutionResult.newExecutionResult().data(Map.of("sudoku", Map.of("id", SUDOKU_ID))).build();
+            return Mono.just(new WebGraphQlResponse(new DefaultExecutionGraphQlResponse(executionInput, result)));
+        };
+        cache.intercept(request(), chain).block();
+    }
+
+    private static WebGraphQlRequest request() {
+        Map<String, Object> body = Map.of("query", SUDOKU, "variables", Map.of("sudokuId", SUDOKU_ID));
+        return new WebGraphQlRequest(URI.create("http://localhost/graphql"), new HttpHeaders(), null, null, Map.of(), body, "1", Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,94 @@
+package org.hisudoku.hisudokuapi.general.graphql;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.hisudoku.hisudokuapi.TestcontainersConfiguration;
+import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
+import org.hisudoku.hisudokuapi.sudokus.repositories.SudokuComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.sudokus.services.SudokuFixtures;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.graphql.tester.AutoConfigureHttpGraphQlTester;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.graphql.test.tester.HttpGraphQlTester;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Anonymous requests through the whole web layer, the cache is observed through its hit counter
+@Import(TestcontainersConfiguration.class)
+@ActiveProfiles("test")
+@SpringBootTest
+@AutoConfigureHttpGraphQlTester
+class AnonymousResponseCacheTests {
+    private static final String SUDOKU = "query Sudoku($sudokuId: ID!) { sudoku(sudokuId: $sudokuId) { id content } }";
+
+    @Autowired
+    private HttpGraphQlTester graphQlTester;
+
+    @Autowired
+    private AnonymousResponseCache anonymousResponseCache;
+
+    @Autowired
+    private SudokuComplexQueriesRepository sudokuComplexQueriesRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private String sudokuId;
+    private String content;
+
+    @BeforeEach
+    void setUp() {
+        anonymousResponseCache.invalidateAll();
+        Sudoku sudoku = SudokuFixtures.publish(sudokuComplexQueriesRepository, new ObjectId().toHexString());
+        sudokuId = sudoku.getId();
+        content = sudoku.getContent();
+    }
+
+    @Test
+    void repeatedAnonymousQueryIsServedFromTheCache() {
+        double hits = hits();
+
+        querySudoku();
+        querySudoku();
+
+        assertEquals(hits + 1, hits());
+    }
+
+    @Test
+    void responseIsEvictedWhenItsSudokuChanges() {
+        querySudoku();
+        anonymousResponseCache.invalidate(AnonymousResponseCache.sudokuTag(new ObjectId().toHexString())); // another sudoku
+        double hits = hits();
+        querySudoku();
+        assertEquals(hits + 1, hits());
+
+        anonymousResponseCache.invalidate(AnonymousResponseCache.sudokuTag(sudokuId));
+        querySudoku();
+        assertEquals(hits + 1, hits());
+    }
+
+    @Test
+    void variablesInAnyOrderShareTheEntry() {
+        String feed = "query Feed($sudokusLimit: Int!, $minDifficulty: Int) { sudokuFeed(sudokusLimit: $sudokusLimit, minDifficulty: $minDifficulty) { sudokus { id } } }";
+        graphQlTester.document(feed).variable("sudokusLimit", 5).variable("minDifficulty", 1).execute().errors().verify();
+        double hits = hits();
+
+        graphQlTester.document(feed).variable("minDifficulty", 1).variable("sudokusLimit", 5).execute().errors().verify();
+
+        assertEquals(hits + 1, hits());
+    }
+
+    private void querySudoku() {
+        graphQlTester.document(SUDOKU).variable("sudokuId", sudokuId).execute().path("sudoku.content").entity(String.class).isEqualTo(content);
+    }
+
+    private double hits() {
+        return meterRegistry.get("cache.gets").tag("cache", "graphql-anonymous-responses").tag("result", "hit").functionCounter().count();
+    }
+}
@@ -0,0 +1,119 @@
+package org.hisudoku.hisudokuapi.general.graphql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.parser.Parser;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.hisudoku.hisudokuapi.general.utils.HashUtils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The parse and validate function graphql-java passes in is replaced by a counting parser, the provider is exercised without a schema
+class PersistedQueryDocumentProviderTests {
+    private static final String FEED = "query Feed { sudokuFeed(sudokusLimit: 10) { sudokus { id } } }";
+    private static final String ME = "query Me { me { id } }";
+
+    private final AtomicInteger parsed = new AtomicInteger();
+    private final Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidate = input -> {
+        parsed.incrementAndGet();
+        return new PreparsedDocumentEntry(Parser.parse(input.getQuery()));
+    };
+
+    @Test
+    void distinctOperationIsParsedOnce() throws IOException {
+        PersistedQueryDocumentProvider provider = provider(false, new ClassPathResource("no-persisted-query-manifest.json"));
+
+        document(provider, FEED, null);
+        document(provider, FEED, null);
+        document(provider, ME, null);
+
+        assertEquals(2, parsed.get());
+        assertEquals(2, provider.getCachedDocuments());
+    }
+
+    @Test
+    void unknownHashIsRegisteredBySendingTheQueryWithIt() throws IOException {
+        PersistedQueryDocumentProvider provider = provider(false, manifest());
+        String hash = HashUtils.sha256Hex(ME);
+
+        assertEquals(PersistedQueryDocumentProvider.PERSISTED_QUERY_NOT_FOUND, document(provider, "", hash).getErrors().getFirst().getMessage());
+
+        assertFalse(document(provider, ME, hash).hasErrors());
+        PreparsedDocumentEntry byHash = document(provider, "", hash);
+        assertFalse(byHash.hasErrors());
+        assertEquals(1, parsed.get());
+    }
+
+    @Test
+    void hashThatDoesNotMatchTheQueryIsRejected() throws IOException {
+        PersistedQueryDocumentProvider provider = provider(false, manifest());
+
+        PreparsedDocumentEntry entry = document(provider, ME, HashUtils.sha256Hex(FEED));
+
+        assertEquals(PersistedQueryDocumentProvider.PERSISTED_QUERY_HASH_MISMATCH, entry.getErrors().getFirst().getMessage());
+        assertEquals(0, parsed.get());
+    }
+
+    @Test
+    void allowListAcceptsOnlyManifestOperations() throws IOException {
+        PersistedQueryDocumentProvider provider = provider(true, manifest());
+
+        assertFalse(document(provider, "", HashUtils.sha256Hex(FEED)).hasErrors()); // by hash without sending the text first
+        assertFalse(document(provider, FEED, null).hasErrors());
+        assertEquals(PersistedQueryDocumentProvider.PERSISTED_QUERY_NOT_ALLOWED, document(provider, ME, null).getErrors().getFirst().getMessage());
+        assertEquals(PersistedQueryDocumentProvider.PERSISTED_QUERY_NOT_FOUND, document(provider, "", HashUtils.sha256Hex(ME)).getErrors().getFirst().getMessage());
+    }
+
+    @Test
+    void manifestWithWrongHashIsRefused() {
+        Resource manifest = new ByteArrayResource(("{\"format\":\"apollo-persisted-query-manifest\",\"version\":1,\"operations\":[{\"id\":\"" + HashUtils.sha256Hex(ME) + "\",\"name\":\"Feed\",\"type\":\"query\",\"body\":\"" + FEED + "\"}]}").getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalStateException.class, () -> provider(true, manifest));
+    }
+
+    @Test
+    void shippedManifestIsEmptyAndRefusedByTheAllowList() throws IOException {
+        Resource shipped = new ClassPathResource("graphql/persisted-query-manifest.json");
+
+        assertTrue(shipped.exists());
+        assertFalse(document(provider(false, shipped), FEED, null).hasErrors());
+        assertThrows(IllegalStateException.class, () -> provider(true, shipped));
+    }
+
+    private static Resource manifest() {
+        String json = "{\"format\":\"apollo-persisted-query-manifest\",\"version\":1,\"operations\":[{\"id\":\"" + HashUtils.sha256Hex(FEED) + "\",\"name\":\"Feed\",\"type\":\"query\",\"body\":\"" + FEED + "\"}]}";
+        return new ByteArrayResource(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static PersistedQueryDocumentProvider provider(boolean allowListEnabled, Resource manifest) throws IOException {
+        return new PersistedQueryDocumentProvider(allowListEnabled, manifest, 100, new ObjectMapper(), new SimpleMeterRegistry());
+    }
+
+    private PreparsedDocumentEntry document(PersistedQueryDocumentProvider provider, String query, String hash) {
+        ExecutionInput.Builder input = ExecutionInput.newExecutionInput().query(query);
+        if (hash != null) {
+            input.extensions(Map.of("persistedQuery", Map.of("version", 1, "sha256Hash", hash)));
+        }
+        PreparsedDocumentEntry entry = provider.getDocumentAsync(input.build(), parseAndValidate).join();
+        assertTrue(entry.hasErrors() || entry.getDocument() != null);
+        return entry;
+    }
+}
@@ -0,0 +1,113 @@
+package org.hisudoku.hisudokuapi.general.graphql;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.execution.CoercedVariables;
+import graphql.parser.Parser;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.UnExecutableSchemaGenerator;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.StaticMessageSource;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs against the real schema without data fetchers, only the costing and the abort before execution are checked
+class QueryCostInstrumentationTests {
+    private static final String FAN_OUT = "{ sudokuFeed(sudokusLimit: 50) { sudokus { favouritedBy(usersLimit: 50) { users { id name } } } } }";
+
+    private static GraphQLSchema schema;
+    private final QueryCostInstrumentation instrumentation = new QueryCostInstrumentation(
+            Map.of("Query.sudokuFeed", 10, "SudokuModel.favouritedBy", 5),
+            1,
+            List.of("sudokusLimit", "usersLimit"),
+            1000,
+            5000,
+            messages()
+    );
+
+    @BeforeAll
+    static void loadSchema() throws IOException {
+        try (Reader reader = new InputStreamReader(new ClassPathResource("graphql/schema.graphqls").getInputStream(), StandardCharsets.UTF_8)) {
+            schema = UnExecutableSchemaGenerator.makeUnExecutableSchema(new SchemaParser().parse(reader));
+        }
+    }
+
+    @Test
+    void selectionIsMultipliedByThePageSize() {
+        // sudokus: 1 + id 1 = 2, sudokuFeed: 10 + 10 * 2
+        assertEquals(30, cost("{ sudokuFeed(sudokusLimit: 10) { sudokus { id } } }", Map.of()));
+    }
+
+    @Test
+    void nestedPagesMultiplyEachOther() {
+        // users: 1 + 2 = 3, favouritedBy: 5 + 50 * 3 = 155, sudokus: 1 + 155 = 156, sudokuFeed: 10 + 50 * 156
+        assertEquals(7810, cost(FAN_OUT, Map.of()));
+    }
+
+    @Test
+    void pageSizeIsTakenFromVariables() {
+        String query = "query Feed($limit: Int!) { sudokuFeed(sudokusLimit: $limit) { sudokus { id } } }";
+        assertEquals(10 + 20 * 2, cost(query, Map.of("limit", 20)));
+    }
+
+    @Test
+    void introspectionIsFree() {
+        assertEquals(0, cost("{ __schema { types { name fields { name } } } }", Map.of()));
+    }
+
+    @Test
+    void operationOverTheBudgetIsAbortedAndReportsItsCost() {
+        ExecutionResult result = execute(FAN_OUT, false);
+
+        assertEquals("cost 7810 over 1000", result.getErrors().getFirst().getMessage());
+        assertEquals(Map.of("requested", 7810L, "budget", 1000L), result.getExtensions().get("cost"));
+    }
+
+    @Test
+    void authenticatedCallerHasItsOwnBudget() {
+        // users: 1 + 1 = 2, favouritedBy: 5 + 10 * 2 = 25, sudokus: 1 + 1 + 25 = 27, sudokuFeed: 10 + 50 * 27
+        String query = "{ sudokuFeed(sudokusLimit: 50) { sudokus { id favouritedBy(usersLimit: 10) { users { id } } } } }";
+
+        ExecutionResult anonymous = execute(query, false);
+        ExecutionResult authenticated = execute(query, true);
+
+        assertEquals("cost 1360 over 1000", anonymous.getErrors().getFirst().getMessage());
+        assertEquals(Map.of("requested", 1360L, "budget", 5000L), authenticated.getExtensions().get("cost"));
+        assertTrue(authenticated.getErrors().stream().noneMatch(error -> error.getMessage().startsWith("cost")));
+    }
+
+    private long cost(String query, Map<String, Object> variables) {
+        return instrumentation.calculateCost(schema, Parser.parse(query), null, CoercedVariables.of(variables));
+    }
+
+    private ExecutionResult execute(String query, boolean authenticated) {
+        return GraphQL.newGraphQL(schema)
+                .instrumentation(instrumentation)
+                .build()
+                .execute(ExecutionInput.newExecutionInput()
+                        .query(query)
+                        .graphQLContext(Map.of(QueryCostInstrumentation.AUTHENTICATED, authenticated))
+                        .locale(Locale.ENGLISH)
+                        .build());
+    }
+
+    private static StaticMessageSource messages() {
+        StaticMessageSource messages = new StaticMessageSource();
+        messages.addMessage("exceptions.query-cost-exceeded", Locale.ENGLISH, "cost {0} over {1}");
+        return messages;
+    }
+}
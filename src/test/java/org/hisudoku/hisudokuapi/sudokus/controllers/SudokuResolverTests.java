@@ -0,0 +1,68 @@
+package org.hisudoku.hisudokuapi.sudokus.controllers;
+
+import org.hisudoku.hisudokuapi.TestcontainersConfiguration;
+import org.hisudoku.hisudokuapi.sudokus.repositories.SudokuComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.sudokus.services.SudokuFixtures;
+import org.hisudoku.hisudokuapi.users.entities.HSUser;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.graphql.tester.AutoConfigureHttpGraphQlTester;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.graphql.test.tester.GraphQlTester;
+import org.springframework.graphql.test.tester.HttpGraphQlTester;
+import org.springframework.test.context.ActiveProfiles;
+
+// Both sudokus are fields of one query, so their authors are loaded by one call of the author batch mapping
+@Import(TestcontainersConfiguration.class)
+@ActiveProfiles("test")
+@SpringBootTest
+@AutoConfigureHttpGraphQlTester
+class SudokuResolverTests {
+    private static final String TWO_SUDOKUS = "query Sudokus($first: ID!, $second: ID!) { first: sudoku(sudokuId: $first) { id author { id name } } second: sudoku(sudokuId: $second) { id author { id name } } }";
+
+    @Autowired
+    private HttpGraphQlTester graphQlTester;
+
+    @Autowired
+    private SudokuComplexQueriesRepository sudokuComplexQueriesRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    void authorsAreResolved() {
+        HSUser author = insertUser();
+        String first = SudokuFixtures.publish(sudokuComplexQueriesRepository, author.getId()).getId();
+        String second = SudokuFixtures.publish(sudokuComplexQueriesRepository, author.getId()).getId();
+
+        GraphQlTester.Response response = graphQlTester.document(TWO_SUDOKUS).variable("first", first).variable("second", second).execute();
+
+        response.errors().verify();
+        response.path("first.author.id").entity(String.class).isEqualTo(author.getId());
+        response.path("second.author.name").entity(String.class).isEqualTo(author.getName());
+    }
+
+    @Test
+    void removedAuthorResolvesToNullWithoutTakingTheSudokuWithIt() {
+        HSUser author = insertUser();
+        String kept = SudokuFixtures.publish(sudokuComplexQueriesRepository, author.getId()).getId();
+        String orphaned = SudokuFixtures.publish(sudokuComplexQueriesRepository, new ObjectId().toHexString()).getId(); // as after an admin removed the user
+
+        GraphQlTester.Response response = graphQlTester.document(TWO_SUDOKUS).variable("first", kept).variable("second", orphaned).execute();
+
+        response.errors().verify();
+        response.path("first.author.id").entity(String.class).isEqualTo(author.getId());
+        response.path("second.id").entity(String.class).isEqualTo(orphaned);
+        response.path("second.author").valueIsNull();
+    }
+
+    private HSUser insertUser() {
+        HSUser user = new HSUser();
+        user.setName("author-" + new ObjectId().toHexString());
+        return mongoTemplate.insert(user);
+    }
+}
@@ -0,0 +1,127 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.hisudoku.hisudokuapi.TestcontainersConfiguration;
+import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
+import org.hisudoku.hisudokuapi.sudokus.repositories.FavouriteComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.sudokus.repositories.SudokuComplexQueriesRepository;
+import org.hisudoku.hisudokuapi.users.entities.HSUser;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The scheduled flush is pushed out of the way, the tests flush by hand
+@Import(TestcontainersConfiguration.class)
+@ActiveProfiles("test")
+@SpringBootTest(properties = "application.sudokus.favourite-buffer.flush-interval=1h")
+class FavouriteToggleBufferTests {
+    @Autowired
+    private FavouriteToggleBuffer favouriteToggleBuffer;
+
+    @Autowired
+    private SudokuComplexQueriesRepository sudokuComplexQueriesRepository;
+
+    @Autowired
+    private FavouriteComplexQueriesRepository favouriteComplexQueriesRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private String sudokuId;
+    private String userId;
+
+    @BeforeEach
+    void setUp() {
+        favouriteToggleBuffer.flush();
+        sudokuId = SudokuFixtures.publish(sudokuComplexQueriesRepository, new ObjectId().toHexString()).getId();
+        HSUser user = new HSUser();
+        user.setName("buffer-" + new ObjectId().toHexString());
+        userId = mongoTemplate.insert(user).getId();
+    }
+
+    @Test
+    void toggleIsReadBeforeItIsWritten() {
+        Sudoku toggled = favouriteToggleBuffer.toggle(sudokuId, userId).orElseThrow();
+
+        assertEquals(1, toggled.getFavouriteCount());
+        assertEquals(1, favouriteToggleBuffer.pendingLikes(sudokuId));
+        assertEquals(0, favouriteCount());
+        assertFalse(favouriteComplexQueriesRepository.exists(sudokuId, userId));
+
+        favouriteToggleBuffer.flush();
+
+        assertEquals(0, favouriteToggleBuffer.pendingLikes(sudokuId));
+        assertEquals(1, favouriteCount());
+        assertTrue(favouriteComplexQueriesRepository.exists(sudokuId, userId));
+    }
+
+    @Test
+    void toggleUndoneBeforeTheFlushIsNotWritten() {
+        double writes = meterRegistry.get("favourites.buffer.writes").counter().count();
+
+        favouriteToggleBuffer.toggle(sudokuId, userId);
+        favouriteToggleBuffer.toggle(sudokuId, userId);
+        favouriteToggleBuffer.toggle(sudokuId, userId);
+        favouriteToggleBuffer.toggle(sudokuId, userId);
+        favouriteToggleBuffer.flush();
+
+        assertEquals(writes, meterRegistry.get("favourites.buffer.writes").counter().count());
+        assertEquals(0, favouriteCount());
+        assertFalse(favouriteComplexQueriesRepository.exists(sudokuId, userId));
+    }
+
+    @Test
+    void toggleAfterTheFlushStartsFromTheWrittenState() {
+        favouriteToggleBuffer.toggle(sudokuId, userId);
+        favouriteToggleBuffer.flush();
+
+        Sudoku toggled = favouriteToggleBuffer.toggle(sudokuId, userId).orElseThrow();
+        assertEquals(0, toggled.getFavouriteCount());
+        favouriteToggleBuffer.flush();
+
+        assertEquals(0, favouriteCount());
+        assertFalse(favouriteComplexQueriesRepository.exists(sudokuId, userId));
+    }
+
+    @Test
+    void likeOfRemovedSudokuIsDropped() {
+        favouriteToggleBuffer.toggle(sudokuId, userId);
+        sudokuComplexQueriesRepository.removeOneById(sudokuId);
+
+        favouriteToggleBuffer.flush();
+
+        assertFalse(favouriteComplexQueriesRepository.exists(sudokuId, userId));
+        assertEquals(0, favouriteToggleBuffer.pendingLikes(sudokuId));
+    }
+
+    @Test
+    void toggleOfUserBeingRemovedIsDiscarded() {
+        favouriteToggleBuffer.toggle(sudokuId, userId);
+
+        favouriteToggleBuffer.discardUser(userId); // as UserActionsService.removeOne does, before the edges go and while the user document still exists
+        sudokuComplexQueriesRepository.removeFavouritesOfUser(userId);
+        favouriteToggleBuffer.flush();
+
+        assertFalse(favouriteComplexQueriesRepository.exists(sudokuId, userId));
+        assertEquals(0, favouriteToggleBuffer.pendingLikes(sudokuId));
+        assertEquals(0, favouriteCount());
+    }
+
+    private int favouriteCount() {
+        return sudokuComplexQueriesRepository.findOneById(sudokuId).orElseThrow().getFavouriteCount();
+    }
+}
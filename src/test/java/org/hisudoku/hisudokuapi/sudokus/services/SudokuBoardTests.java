@@ -0,0 +1,107 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.hisudoku.hisudokuapi.sudokus.services.SudokuFixtures.board;
+
+// The board engine directly and through the SudokuUtils validation that delegates to it
+class SudokuBoardTests {
+    private static final String PUZZLE = "530070000600195000098000060800060003400803001700020006060000280000419005000080079";
+    private static final String SOLUTION = "534678912672195348198342567859761423426853791713924856961537284287419635345286179";
+    private static final String PUZZLE_CONTENT = "530.070.000;600.195.000;098.000.060;800.060.003;400.803.001;700.020.006;060.000.280;000.419.005;000.080.079;";
+
+    @Test
+    void contentIsParsedRowByRow() {
+        SudokuBoard board = SudokuBoard.parse(PUZZLE_CONTENT);
+
+        assertEquals(5, board.get(0, 0));
+        assertEquals(7, board.get(0, 4));
+        assertEquals(9, board.get(8, 8));
+        assertEquals(0, board.get(4, 1));
+        assertEquals(30, board.getFilledCount());
+        assertEquals(PUZZLE_CONTENT, board.toContent());
+        assertEquals(board(PUZZLE).toContent(), board.toContent());
+    }
+
+    @Test
+    void malformedContentIsRejected() {
+        assertFalse(SudokuBoard.isWellFormed(null));
+        assertFalse(SudokuBoard.isWellFormed(PUZZLE_CONTENT.substring(1))); // wrong length
+        assertFalse(SudokuBoard.isWellFormed(PUZZLE_CONTENT + "000.000.000;"));
+        assertFalse(SudokuBoard.isWellFormed("x" + PUZZLE_CONTENT.substring(1))); // non-digit
+        assertFalse(SudokuBoard.isWellFormed(PUZZLE_CONTENT.replaceFirst("\\.", ","))); // wrong separator
+        assertFalse(SudokuBoard.isWellFormed(PUZZLE_CONTENT.substring(0, 107) + "."));
+        assertTrue(SudokuBoard.isWellFormed(PUZZLE_CONTENT));
+
+        assertThrows(IllegalArgumentException.class, () -> SudokuBoard.parse("x" + PUZZLE_CONTENT.substring(1)));
+    }
+
+    @Test
+    void duplicatesMakeTheBoardInconsistent() {
+        assertTrue(board(PUZZLE).isConsistent());
+        assertFalse(board("11" + "0".repeat(79)).isConsistent()); // row
+        assertFalse(board("1" + "0".repeat(8) + "1" + "0".repeat(71)).isConsistent()); // column
+        assertFalse(board("1" + "0".repeat(9) + "1" + "0".repeat(70)).isConsistent()); // box only: (0, 0) and (1, 1)
+    }
+
+    @Test
+    void solvedOnlyWhenFullAndConsistent() {
+        assertTrue(board(SOLUTION).isSolved());
+        assertFalse(board(PUZZLE).isSolved());
+        assertFalse(board("1" + SOLUTION.substring(1)).isSolved()); // full, but the 1 is repeated
+    }
+
+    @Test
+    void candidatesAreTheDigitsNotSeenByTheCell() {
+        SudokuBoard board = board("123456780" + "0".repeat(72));
+
+        assertEquals(1 << 8, board.candidates(8)); // only 9 is left in the first row
+        assertEquals(SudokuBoard.ALL_DIGITS & ~0b111, board.candidates(9)); // 1, 2 and 3 are in its box
+        assertEquals(SudokuBoard.ALL_DIGITS & ~0b1, board.candidates(72)); // 1 is in its column
+        assertEquals(0, board.candidates(0)); // filled
+    }
+
+    @Test
+    void rowsAreValidatedBeforeTheyAreLoaded() {
+        List<List<Integer>> rows = board(PUZZLE).toRows();
+        assertEquals(PUZZLE_CONTENT, SudokuBoard.fromRows(rows).toContent());
+        assertTrue(SudokuUtils.validateIfBoardIsValid(rows));
+
+        assertFalse(SudokuUtils.validateIfBoardIsValid(rows.subList(0, 8))); // wrong number of rows
+        assertFalse(SudokuUtils.validateIfBoardIsValid(withCell(rows, 0, 2, 10))); // not a digit
+        assertFalse(SudokuUtils.validateIfBoardIsValid(withCell(rows, 1, 1, 5))); // 5 is already in the first box
+        List<List<Integer>> shortRow = new ArrayList<>(rows);
+        shortRow.set(3, rows.get(3).subList(0, 8));
+        assertFalse(SudokuUtils.validateIfBoardIsValid(shortRow));
+    }
+
+    @Test
+    void sudokuStringsAreValidatedByTheBoard() throws Exception {
+        assertTrue(SudokuUtils.validateIfStringRepresentsValidSudokuBoard(PUZZLE_CONTENT));
+        assertFalse(SudokuUtils.validateIfStringRepresentsValidSudokuBoard("5" + PUZZLE_CONTENT.substring(1, 13) + "5" + PUZZLE_CONTENT.substring(14))); // 5 twice in the first box
+        assertThrows(Exception.class, () -> SudokuUtils.validateIfStringRepresentsValidSudokuBoard(PUZZLE_CONTENT.substring(12)));
+        assertThrows(Exception.class, () -> SudokuUtils.stringToBoard("a" + PUZZLE_CONTENT.substring(1)));
+    }
+
+    @Test
+    void fragmentIsSolvedWhenItHoldsEveryDigitOnce() {
+        assertTrue(SudokuUtils.validateIfFragmentIsSolved(List.of(9, 8, 7, 6, 5, 4, 3, 2, 1)));
+        assertFalse(SudokuUtils.validateIfFragmentIsSolved(List.of(1, 1, 3, 4, 5, 6, 7, 8, 9)));
+        assertFalse(SudokuUtils.validateIfFragmentIsSolved(List.of(1, 2, 3, 4, 5, 6, 7, 8)));
+        assertFalse(SudokuUtils.validateIfFragmentIsSolved(List.of(0, 2, 3, 4, 5, 6, 7, 8, 9)));
+    }
+
+    private static List<List<Integer>> withCell(List<List<Integer>> rows, int row, int column, int value) {
+        List<List<Integer>> copy = new ArrayList<>();
+        rows.forEach(boardRow -> copy.add(new ArrayList<>(boardRow)));
+        copy.get(row).set(column, value);
+        return copy;
+    }
+}
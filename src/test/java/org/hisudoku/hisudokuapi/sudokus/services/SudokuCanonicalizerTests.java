@@ -0,0 +1,91 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.IntBinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.hisudoku.hisudokuapi.sudokus.services.SudokuFixtures.board;
+
+// canonicalHash backs the unique canonical_hash index: every equivalent board has to land on the same hash and a different board must not
+class SudokuCanonicalizerTests {
+    private static final String PUZZLE = "530070000600195000098000060800060003400803001700020006060000280000419005000080079";
+    private static final String OTHER_PUZZLE = "010000050007500000092000000200065070000001000001970280005014703020000000008720009";
+
+    @Test
+    void relabeledDigitsGiveTheSameHash() {
+        String relabeled = PUZZLE.chars()
+                .map(digit -> digit == '0' ? digit : '1' + ("794251386".charAt(digit - '1') - '1'))
+                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
+                .toString();
+
+        assertSameHash(relabeled);
+    }
+
+    @Test
+    void transposedBoardGivesTheSameHash() {
+        assertSameHash(rearrange(PUZZLE, (row, column) -> cell(column, row)));
+    }
+
+    @Test
+    void rotatedBoardGivesTheSameHash() {
+        assertSameHash(rearrange(PUZZLE, (row, column) -> cell(8 - column, row)));
+        assertSameHash(rearrange(PUZZLE, (row, column) -> cell(8 - row, 8 - column)));
+    }
+
+    @Test
+    void permutedBandsGiveTheSameHash() {
+        int[] bands = {2, 0, 1};
+        assertSameHash(rearrange(PUZZLE, (row, column) -> cell(bands[row / 3] * 3 + row % 3, column)));
+    }
+
+    @Test
+    void permutedStacksGiveTheSameHash() {
+        int[] stacks = {1, 2, 0};
+        assertSameHash(rearrange(PUZZLE, (row, column) -> cell(row, stacks[column / 3] * 3 + column % 3)));
+    }
+
+    @Test
+    void permutedRowsWithinABandGiveTheSameHash() {
+        int[] rows = {2, 0, 1};
+        assertSameHash(rearrange(PUZZLE, (row, column) -> cell(row / 3 * 3 + rows[row % 3], column)));
+    }
+
+    @Test
+    void permutedColumnsWithinAStackGiveTheSameHash() {
+        int[] columns = {1, 0, 2};
+        assertSameHash(rearrange(PUZZLE, (row, column) -> cell(row, column / 3 * 3 + columns[column % 3])));
+    }
+
+    @Test
+    void differentPuzzlesGiveDifferentHashes() {
+        assertNotEquals(hash(PUZZLE), hash(OTHER_PUZZLE));
+        // one more given on an otherwise identical board
+        assertNotEquals(hash(PUZZLE), hash("534" + PUZZLE.substring(3)));
+    }
+
+    private static void assertSameHash(String equivalent) {
+        assertNotEquals(PUZZLE, equivalent);
+        assertEquals(hash(PUZZLE), hash(equivalent));
+    }
+
+    private static String hash(String digits) {
+        return SudokuCanonicalizer.canonicalHash(board(digits));
+    }
+
+    // the cell at (row, column) of the result is taken from the cell of digits the function returns
+    private static String rearrange(String digits, IntBinaryOperator source) {
+        StringBuilder result = new StringBuilder(SudokuBoard.CELLS);
+        for (int row = 0; row < SudokuBoard.SIZE; row++) {
+            for (int column = 0; column < SudokuBoard.SIZE; column++) {
+                result.append(digits.charAt(source.applyAsInt(row, column)));
+            }
+        }
+        return result.toString();
+    }
+
+    private static int cell(int row, int column) {
+        return row * SudokuBoard.SIZE + column;
+    }
+}
@@ -0,0 +1,39 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+import org.hisudoku.hisudokuapi.sudokus.entities.Sudoku;
+import org.hisudoku.hisudokuapi.sudokus.repositories.SudokuComplexQueriesRepository;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Boards for the sudoku tests written as 81 digits row by row, 0 for an empty cell
+public final class SudokuFixtures {
+    private static final String SOLUTION = "534678912672195348198342567859761423426853791713924856961537284287419635345286179";
+    private static final int MIN_GIVENS = 17; // no proper sudoku has fewer
+    private static final AtomicInteger published = new AtomicInteger();
+
+    private SudokuFixtures() {
+    }
+
+    static SudokuBoard board(String digits) {
+        byte[] cells = new byte[SudokuBoard.CELLS];
+        for (int cell = 0; cell < SudokuBoard.CELLS; cell++) {
+            cells[cell] = (byte) (digits.charAt(cell) - '0');
+        }
+        return SudokuBoard.fromCells(cells);
+    }
+
+    // The unique canonical_hash index rejects a board equivalent to one already stored, and the Spring tests share one database. Every call returns the first 80, 79, 78... cells of the same solved grid: boards with a different number of givens are never equivalent, so each one gets a canonical hash of its own.
+    public static String distinctContent() {
+        int givens = SudokuBoard.CELLS - 1 - published.getAndIncrement();
+        if (givens < MIN_GIVENS) {
+            throw new IllegalStateException("Out of distinct test sudokus");
+        }
+        return board(SOLUTION.substring(0, givens) + "0".repeat(SudokuBoard.CELLS - givens)).toContent();
+    }
+
+    // a sudoku with a distinct board, analysed the way SudokusService does it
+    public static Sudoku publish(SudokuComplexQueriesRepository sudokuComplexQueriesRepository, String authorId) {
+        String content = distinctContent();
+        return sudokuComplexQueriesRepository.addOne(content, authorId, SudokuAnalysis.of(SudokuUtils.parseValidBoard(content)));
+    }
+}
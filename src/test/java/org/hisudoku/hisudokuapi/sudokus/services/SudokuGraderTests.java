@@ -0,0 +1,57 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.hisudoku.hisudokuapi.sudokus.services.SudokuFixtures.board;
+
+// One proper puzzle per technique tier, each one cannot be finished with the techniques of the lower tiers
+class SudokuGraderTests {
+    @Test
+    void nakedSinglesOnly() {
+        assertEquals(1, SudokuGrader.grade(board("010000050007500000092000000200065070000001000001970280005014703020000000008720009")));
+    }
+
+    @Test
+    void hiddenSingles() {
+        assertEquals(2, SudokuGrader.grade(board("000001950302098040000000007000705006020000790050004000005000000007400300600003000")));
+    }
+
+    @Test
+    void lockedCandidates() {
+        assertEquals(3, SudokuGrader.grade(board("000000069089002003610000050000050007090300000000190305100208000030000000700000680")));
+    }
+
+    @Test
+    void nakedPairs() {
+        assertEquals(4, SudokuGrader.grade(board("060900500008001000053000100000000400080306750700004010090000830830420900000000000")));
+    }
+
+    @Test
+    void hiddenPairs() {
+        assertEquals(5, SudokuGrader.grade(board("300706000700040200006080001000005890097000140002000000000321060000800700000000504")));
+    }
+
+    @Test
+    void xWing() {
+        assertEquals(6, SudokuGrader.grade(board("050009000000800020040520300000100200060905040000000000478000000001200003003007804")));
+    }
+
+    @Test
+    void backtrackingIsGradedByItsNodes() {
+        assertEquals(8, SudokuGrader.grade(board("093000400000740000700038002000060000000009240079080000460000010800300005005800000")));
+        assertEquals(9, SudokuGrader.grade(board("004005010070008000100300000000760090406000701013090000200000054000002008300900000")));
+        assertEquals(10, SudokuGrader.grade(board("000038000007000000400600000010024006500000300000005002900060005080040260001700009")));
+    }
+
+    @Test
+    void backtrackingOutOfNodesIsTheHardestGrade() {
+        assertEquals(SudokuGrader.MAX_DIFFICULTY, SudokuGrader.grade(board("004005010070008000100300000000760090406000701013090000200000054000002008300900000"), 100));
+    }
+
+    @Test
+    void contradictionIsNotGraded() {
+        assertNull(SudokuGrader.grade(board("123456780" + "000000009" + "0".repeat(63))));
+    }
+}
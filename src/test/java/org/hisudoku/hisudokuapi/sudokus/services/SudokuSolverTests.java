@@ -0,0 +1,64 @@
+package org.hisudoku.hisudokuapi.sudokus.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.hisudoku.hisudokuapi.sudokus.services.SudokuFixtures.board;
+
+class SudokuSolverTests {
+    private static final String PUZZLE = "530070000600195000098000060800060003400803001700020006060000280000419005000080079";
+    private static final String SOLUTION = "534678912672195348198342567859761423426853791713924856961537284287419635345286179";
+    private static final String EMPTY = "0".repeat(81);
+
+    @Test
+    void properPuzzleHasOneSolution() {
+        SudokuSolver.Result result = SudokuSolver.solve(board(PUZZLE));
+
+        assertTrue(result.isSolvable());
+        assertTrue(result.isUnique());
+        assertEquals(board(SOLUTION).toContent(), result.solutionContent());
+    }
+
+    @Test
+    void sparseBoardHasSeveralSolutions() {
+        SudokuSolver.Result result = SudokuSolver.solve(board(EMPTY));
+
+        assertTrue(result.isSolvable());
+        assertFalse(result.isUnique());
+        assertEquals(2, result.solutionCount());
+        assertTrue(SudokuBoard.parse(result.solutionContent()).isSolved());
+    }
+
+    @Test
+    void contradictionHasNoSolution() {
+        // no duplicated digit, but the last cell of the first row sees every digit: 1-8 in its row and 9 in its column
+        SudokuSolver.Result result = SudokuSolver.solve(board("123456780" + "000000009" + "0".repeat(63)));
+
+        assertFalse(result.isSolvable());
+        assertTrue(result.complete());
+        assertNull(result.solutionContent());
+    }
+
+    @Test
+    void solvedBoardIsItsOwnSolution() {
+        SudokuSolver.Result result = SudokuSolver.solve(board(SOLUTION));
+
+        assertTrue(result.isUnique());
+        assertEquals(board(SOLUTION).toContent(), result.solutionContent());
+    }
+
+    @Test
+    void searchOutOfNodesIsNotProvenUnique() {
+        SudokuSolver.Result oneFound = SudokuSolver.solve(board(EMPTY), 2, 82); // 81 placements reach the first solution
+        assertFalse(oneFound.complete());
+        assertTrue(oneFound.isSolvable());
+        assertFalse(oneFound.isUnique());
+
+        SudokuSolver.Result noneFound = SudokuSolver.solve(board(EMPTY), 2, 10);
+        assertFalse(noneFound.complete());
+        assertFalse(noneFound.isSolvable());
+    }
+}
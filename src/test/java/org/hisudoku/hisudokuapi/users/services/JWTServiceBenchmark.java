@@ -0,0 +1,69 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.hisudoku.hisudokuapi.users.enums.PrincipalSource;
+import org.hisudoku.hisudokuapi.users.enums.Role;
+import org.hisudoku.hisudokuapi.users.models.HSUserPrincipal;
+import org.hisudoku.hisudokuapi.users.models.VerifiedToken;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+
+// Cost of the token handling JWTAuthenticationFilter does for one authenticated request, without the principal lookup (that one is served by PrincipalCache).
+//    threeParsesPerRequest - what the filter used to do: validateTokenBySignature, isTokenExpired and extractPrincipal each decoded the secret, built a parser and verified the HMAC
+//    singleParsePerRequest - JWTService.verify with the key and the parser built once (VerifiedTokenCache disabled, see JWTAuthenticationFilterBenchmark for the cache)
+// Run the main method (from the IDE, or: mvn test-compile && java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" org.hisudoku.hisudokuapi.users.services.JWTServiceBenchmark)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JWTServiceBenchmark {
+    private static final String SECRET_KEY = "ZjQ2Y2U4YjgxN2Q1NDg2MmE5YzM4ODk1OWM0ZmM5NzM3YjY1MGE0MmVmZDg0YjE1YTI4MGY3ZDJmMWQ3YzNkNQ==";
+
+    private JWTService jwtService;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtService = new JWTService(SECRET_KEY, Duration.ofMinutes(15).toMillis(), PrincipalSource.DATABASE, null, new PrincipalCache(1, Duration.ofMinutes(5), new SimpleMeterRegistry()), new VerifiedTokenCache(false, 1, new SimpleMeterRegistry()));
+        String now = LocalDateTime.now().toString();
+        token = jwtService.issueAuthToken(new HSUserPrincipal("65f1c0a2b7e4d1a9c8f3e210", "benchmark", null, Role.USER.name(), now, now, "benchmark@hisudoku.org"));
+    }
+
+    @Benchmark
+    public Claims threeParsesPerRequest() {
+        parseWithNewParser(token); // validateTokenBySignature
+        parseWithNewParser(token).getExpiration().before(new Date()); // isTokenExpired
+        return parseWithNewParser(token); // extractPrincipal
+    }
+
+    @Benchmark
+    public Optional<VerifiedToken> singleParsePerRequest() {
+        return jwtService.verify(token);
+    }
+
+    private static Claims parseWithNewParser(String token) {
+        SecretKey key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET_KEY));
+        return Jwts.parser().verifyWith(key).build().parseSignedClaims(token).getPayload();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JWTServiceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
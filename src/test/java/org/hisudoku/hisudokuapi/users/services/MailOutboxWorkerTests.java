@@ -0,0 +1,79 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+import org.hisudoku.hisudokuapi.TestcontainersConfiguration;
+import org.hisudoku.hisudokuapi.users.entities.OutboxMail;
+import org.hisudoku.hisudokuapi.users.enums.OutboxMailStatus;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// GreenMail listens on the port application-test.properties points spring.mail at, the outbox is polled often and retried quickly so the tests do not wait for the production intervals
+@Import(TestcontainersConfiguration.class)
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "application.mail.outbox.poll-interval=100",
+        "application.mail.outbox.initial-backoff=200ms",
+        "application.mail.outbox.max-backoff=1s"
+})
+class MailOutboxWorkerTests {
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    @Autowired
+    private MailService mailService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    void queuedMailIsDeliveredOverSmtp() throws MessagingException {
+        mailService.sendActivateEmailByUUID("outbox-delivery@hisudoku.org", "outbox-delivery", "activation-token", "en");
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> greenMail.getReceivedMessages().length == 1);
+        MimeMessage message = greenMail.getReceivedMessages()[0];
+        assertEquals("activate your account", message.getSubject());
+        assertEquals("outbox-delivery@hisudoku.org", message.getAllRecipients()[0].toString());
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> outboxMailTo("outbox-delivery@hisudoku.org").getStatus() == OutboxMailStatus.SENT);
+    }
+
+    @Test
+    void mailQueuedWhileSmtpIsDownIsRetried() throws MessagingException {
+        greenMail.stop();
+
+        mailService.sendActivateEmailByUUID("outbox-retry@hisudoku.org", "outbox-retry", "activation-token", "en"); // returns without talking to the mail server
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> {
+            OutboxMail mail = outboxMailTo("outbox-retry@hisudoku.org");
+            return mail.getAttempts() >= 1 && mail.getStatus() == OutboxMailStatus.PENDING && mail.getLastError() != null;
+        });
+
+        greenMail.start();
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> greenMail.getReceivedMessages().length == 1);
+        assertEquals("outbox-retry@hisudoku.org", greenMail.getReceivedMessages()[0].getAllRecipients()[0].toString());
+        await().atMost(5, TimeUnit.SECONDS).until(() -> outboxMailTo("outbox-retry@hisudoku.org").getStatus() == OutboxMailStatus.SENT);
+    }
+
+    private OutboxMail outboxMailTo(String to) {
+        return mongoTemplate.findOne(new Query(Criteria.where("to").is(to)), OutboxMail.class);
+    }
+}
@@ -0,0 +1,75 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.context.support.ResourceBundleMessageSource;
+
+import org.thymeleaf.context.Context;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Rendering throughput of the activation mail, the engine is set up like the Boot auto-configuration does it (classpath templates, template cache on, i18n/messages).
+//    processTemplate - what MailService used to do for every mail: a new Context and a full Thymeleaf run over the cached parsed template
+//    renderPrerendered - MailTemplates.render: fragments rendered once, only the link and the user name are inserted
+// Run the main method (from the IDE, or: mvn test-compile && java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" org.hisudoku.hisudokuapi.users.services.MailTemplatesBenchmark)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MailTemplatesBenchmark {
+    private static final String TEMPLATE = "mail/activate-email/activate-email.html";
+    private static final Locale LOCALE = Locale.ENGLISH;
+
+    private SpringTemplateEngine templateEngine;
+    private MailTemplates mailTemplates;
+    private int recipient = 0;
+
+    @Setup
+    public void setUp() {
+        ClassLoaderTemplateResolver templateResolver = new ClassLoaderTemplateResolver();
+        templateResolver.setPrefix("templates/");
+        templateResolver.setSuffix(".html");
+        templateResolver.setTemplateMode(TemplateMode.HTML);
+        templateResolver.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        templateResolver.setCacheable(true);
+
+        ResourceBundleMessageSource messageSource = new ResourceBundleMessageSource();
+        messageSource.setBasename("i18n/messages");
+        messageSource.setDefaultEncoding(StandardCharsets.UTF_8.name());
+
+        templateEngine = new SpringTemplateEngine();
+        templateEngine.setTemplateResolver(templateResolver);
+        templateEngine.setTemplateEngineMessageSource(messageSource);
+        mailTemplates = new MailTemplates(templateEngine);
+    }
+
+    @Benchmark
+    public String processTemplate() {
+        int id = recipient++;
+        Context context = new Context(LOCALE);
+        context.setVariable("activationLink", "https://hisudoku.org/activate-email/token=" + id);
+        context.setVariable("userName", "user" + id);
+        return templateEngine.process(TEMPLATE, context);
+    }
+
+    @Benchmark
+    public String renderPrerendered() {
+        int id = recipient++;
+        return mailTemplates.render(TEMPLATE, LOCALE, Map.of("activationLink", "https://hisudoku.org/activate-email/token=" + id, "userName", "user" + id));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MailTemplatesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,72 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.hisudoku.hisudokuapi.TestcontainersConfiguration;
+import org.hisudoku.hisudokuapi.users.entities.StoredOneTimeToken;
+import org.hisudoku.hisudokuapi.users.repositories.OneTimeTokenComplexQueriesRepository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.security.authentication.ott.GenerateOneTimeTokenRequest;
+import org.springframework.security.authentication.ott.OneTimeToken;
+import org.springframework.security.authentication.ott.OneTimeTokenAuthenticationToken;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@Import(TestcontainersConfiguration.class)
+@ActiveProfiles("test")
+@SpringBootTest
+class MongoOneTimeTokenServiceTests {
+    @Autowired
+    private MongoOneTimeTokenService oneTimeTokenService;
+
+    @Autowired
+    private OneTimeTokenComplexQueriesRepository oneTimeTokenComplexQueriesRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    void tokenCanBeConsumedOnlyOnce() {
+        OneTimeToken token = oneTimeTokenService.generate(new GenerateOneTimeTokenRequest("ott-once"));
+
+        OneTimeToken consumed = oneTimeTokenService.consume(new OneTimeTokenAuthenticationToken(token.getTokenValue()));
+        assertNotNull(consumed);
+        assertEquals("ott-once", consumed.getUsername());
+
+        assertNull(oneTimeTokenService.consume(new OneTimeTokenAuthenticationToken(token.getTokenValue())));
+    }
+
+    @Test
+    void tokenIssuedByOneInstanceIsConsumedByAnother() {
+        MongoOneTimeTokenService otherInstance = new MongoOneTimeTokenService(Duration.ofMinutes(5), 100, oneTimeTokenComplexQueriesRepository, new SimpleMeterRegistry());
+        OneTimeToken token = oneTimeTokenService.generate(new GenerateOneTimeTokenRequest("ott-other-instance"));
+
+        OneTimeToken consumed = otherInstance.consume(new OneTimeTokenAuthenticationToken(token.getTokenValue()));
+        assertNotNull(consumed);
+        assertEquals("ott-other-instance", consumed.getUsername());
+
+        assertNull(oneTimeTokenService.consume(new OneTimeTokenAuthenticationToken(token.getTokenValue()))); // not in the negative cache of this instance, the db no longer has it
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        OneTimeToken token = oneTimeTokenService.generate(new GenerateOneTimeTokenRequest("ott-expired"));
+        mongoTemplate.updateFirst(new Query(Criteria.where("username").is("ott-expired")), new Update().set("expiresAt", Instant.now().minusSeconds(1)), StoredOneTimeToken.class); // before the TTL monitor gets to it
+
+        assertNull(oneTimeTokenService.consume(new OneTimeTokenAuthenticationToken(token.getTokenValue())));
+    }
+}
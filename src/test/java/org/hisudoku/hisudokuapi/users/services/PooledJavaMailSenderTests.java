@@ -0,0 +1,110 @@
+package org.hisudoku.hisudokuapi.users.services;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Runs against a GreenMail SMTP server without the application context, the pool is observed through getIdleConnections
+class PooledJavaMailSenderTests {
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    private PooledJavaMailSender mailSender;
+
+    @BeforeEach
+    void setUp() {
+        mailSender = pooledJavaMailSender(Duration.ofMinutes(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        mailSender.closeIdle();
+    }
+
+    @Test
+    void batchIsSentOverOnePooledConnection() throws MessagingException {
+        mailSender.send(message("first@hisudoku.org"), message("second@hisudoku.org"), message("third@hisudoku.org"));
+
+        assertEquals(3, greenMail.getReceivedMessages().length);
+        assertEquals(1, mailSender.getIdleConnections());
+    }
+
+    @Test
+    void connectionIsReusedBySubsequentSends() throws MessagingException {
+        mailSender.send(message("first@hisudoku.org"));
+        mailSender.send(message("second@hisudoku.org"));
+
+        assertEquals(2, greenMail.getReceivedMessages().length);
+        assertEquals(1, mailSender.getIdleConnections());
+    }
+
+    @Test
+    void idleConnectionsAreEvicted() throws MessagingException {
+        mailSender.closeIdle();
+        mailSender = pooledJavaMailSender(Duration.ZERO);
+        mailSender.send(message("first@hisudoku.org"));
+
+        assertEquals(1, mailSender.evictIdle());
+        assertEquals(0, mailSender.getIdleConnections());
+
+        mailSender.send(message("second@hisudoku.org"));
+        assertEquals(2, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    void connectionDroppedByTheServerIsReplaced() throws MessagingException {
+        mailSender.send(message("first@hisudoku.org"));
+        greenMail.stop();
+        greenMail.start();
+
+        mailSender.send(message("second@hisudoku.org"));
+
+        assertEquals(1, greenMail.getReceivedMessages().length); // the restarted server only knows the second one
+        assertEquals("second@hisudoku.org", greenMail.getReceivedMessages()[0].getAllRecipients()[0].toString());
+        assertEquals(1, mailSender.getIdleConnections());
+    }
+
+    @Test
+    void failedSendReconnectsForTheRestOfTheBatch() throws MessagingException {
+        MimeMessage withoutRecipients = message("first@hisudoku.org");
+        withoutRecipients.setRecipients(MimeMessage.RecipientType.TO, "");
+
+        MailSendException exception = assertThrows(MailSendException.class, () -> mailSender.send(withoutRecipients, message("second@hisudoku.org")));
+
+        assertEquals(1, exception.getFailedMessages().size());
+        assertEquals(1, greenMail.getReceivedMessages().length);
+        assertEquals(1, mailSender.getIdleConnections()); // the replacement, the connection the send failed on is closed
+    }
+
+    private static PooledJavaMailSender pooledJavaMailSender(Duration idleTimeout) {
+        PooledJavaMailSender mailSender = new PooledJavaMailSender(2, idleTimeout);
+        mailSender.setHost("localhost");
+        mailSender.setPort(ServerSetupTest.SMTP.getPort());
+        mailSender.setProtocol(ServerSetupTest.SMTP.getProtocol());
+        return mailSender;
+    }
+
+    private MimeMessage message(String to) throws MessagingException {
+        MimeMessage message = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, "UTF-8");
+        helper.setFrom("noreply@hisudoku.org");
+        helper.setTo(to);
+        helper.setSubject("pooled");
+        helper.setText("<p>pooled</p>", true);
+        return message;
+    }
+}